@@ -0,0 +1,42 @@
+package com.plattysoft.leonids;
+
+import com.plattysoft.leonids.initializers.AccelerationInitializer;
+import com.plattysoft.leonids.initializers.RotationSpeedInitializer;
+import com.plattysoft.leonids.initializers.ScaleInitializer;
+import com.plattysoft.leonids.initializers.SpeedModuleAndRangeInitializer;
+import com.plattysoft.leonids.modifiers.BaseAlphaModifier;
+import com.plattysoft.leonids.modifiers.BaseScaleModifier;
+import com.plattysoft.leonids.modifiers.ParticleInterpolator;
+
+/**
+ * Creates the simulations used by the benchmarks.
+ */
+class BenchmarkEmitter {
+
+    static final AtlasRegion REGION = new AtlasRegion(0, 0, 32, 32);
+
+    private BenchmarkEmitter() {
+    }
+
+    /**
+     * A simulation with the same configuration as a typical confetti effect, emitting from a
+     * single point.
+     */
+    static ParticleSimulation create(boolean packed, int maxParticles, long timeToLive) {
+        ParticleSimulation simulation = new ParticleSimulation(maxParticles, timeToLive).setSeed(42);
+        for (int i = 0; i < maxParticles; i++) {
+            simulation.addParticle(new Particle(REGION));
+        }
+        if (packed) {
+            simulation.usePackedStorage();
+        }
+        simulation.addInitializer(new SpeedModuleAndRangeInitializer(0.1f, 0.3f, 0, 360))
+                .addInitializer(new RotationSpeedInitializer(90, 180))
+                .addInitializer(new AccelerationInitializer(0.0001f, 0.0001f, 90, 90))
+                .addInitializer(new ScaleInitializer(0.5f, 1.5f))
+                .addModifier(new BaseAlphaModifier(255, 0, timeToLive - 200, timeToLive, ParticleInterpolator.LINEAR))
+                .addModifier(new BaseScaleModifier(1f, 0.5f, 0, timeToLive, ParticleInterpolator.LINEAR));
+        simulation.setEmitterRange(500, 500, 500, 500);
+        return simulation;
+    }
+}
@@ -0,0 +1,57 @@
+package com.plattysoft.leonids;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Collisions of a packed buffer with integrated motion against rectangles the size of buttons,
+ * spread over a 1000x1000 area. With the broadphase the cost should barely change with the number
+ * of rectangles.
+ */
+@State(Scope.Thread)
+public class CollisionBenchmark {
+
+    private static final long TIME_TO_LIVE = 1000;
+    private static final int AREA_SIZE = 1000;
+    private static final int RECT_WIDTH = 120;
+    private static final int RECT_HEIGHT = 48;
+
+    @Param({"100", "1000", "10000", "100000"})
+    public int mParticleCount;
+
+    @Param({"1", "16", "256"})
+    public int mColliderCount;
+
+    private final AtlasRegion[] mRegions = new AtlasRegion[]{BenchmarkEmitter.REGION};
+    private ParticleColliders mColliders;
+    private ParticleBuffer mBuffer;
+
+    @Setup
+    public void setUp() {
+        ParticleRandom random = new ParticleRandom(42);
+        mBuffer = new ParticleBuffer(mParticleCount);
+        mBuffer.enableIntegration(mRegions);
+        for (int i = 0; i < mParticleCount; i++) {
+            Particle p = mBuffer.obtainTemplate();
+            p.mSpeedX = random.nextFloat() - 0.5f;
+            p.mSpeedY = random.nextFloat() - 0.5f;
+            mBuffer.add(0, 16, 16, TIME_TO_LIVE, random.nextInt(AREA_SIZE), random.nextInt(AREA_SIZE), 0);
+        }
+        mColliders = new ParticleColliders();
+        mColliders.setBounds(0, 0, AREA_SIZE, AREA_SIZE);
+        for (int i = 0; i < mColliderCount; i++) {
+            int left = random.nextInt(AREA_SIZE - RECT_WIDTH);
+            int top = random.nextInt(AREA_SIZE - RECT_HEIGHT);
+            mColliders.add(left, top, left + RECT_WIDTH, top + RECT_HEIGHT, false);
+        }
+    }
+
+    @Benchmark
+    public ParticleBuffer collide() {
+        mColliders.collide(mBuffer, mRegions);
+        return mBuffer;
+    }
+}
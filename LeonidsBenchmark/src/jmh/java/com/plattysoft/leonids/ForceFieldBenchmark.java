@@ -0,0 +1,77 @@
+package com.plattysoft.leonids;
+
+import com.plattysoft.leonids.modifiers.AttractorForce;
+import com.plattysoft.leonids.modifiers.DragForce;
+import com.plattysoft.leonids.modifiers.FlowField;
+import com.plattysoft.leonids.modifiers.FlowFieldForce;
+import com.plattysoft.leonids.modifiers.ForceField;
+import com.plattysoft.leonids.modifiers.TurbulenceForce;
+import com.plattysoft.leonids.modifiers.VortexForce;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+
+/**
+ * Each force field applied in batch over a packed buffer with integrated motion. The particles are
+ * spread over a 1000x1000 area and the point forces cover most of it.
+ */
+@State(Scope.Thread)
+public class ForceFieldBenchmark {
+
+    private static final long TIME_TO_LIVE = 1000;
+    private static final int AREA_SIZE = 1000;
+
+    @Param({"100", "1000", "10000", "100000"})
+    public int mParticleCount;
+
+    @Param({"attractor", "vortex", "turbulence", "flow-field", "drag"})
+    public String mForce;
+
+    private ForceField mForceField;
+    private ParticleBuffer mBuffer;
+    private long mTime;
+
+    @Setup
+    public void setUp() {
+        mForceField = createForce(mForce);
+        mBuffer = new ParticleBuffer(mParticleCount);
+        mBuffer.enableIntegration(new AtlasRegion[]{BenchmarkEmitter.REGION});
+        ParticleRandom random = new ParticleRandom(42);
+        for (int i = 0; i < mParticleCount; i++) {
+            Particle p = mBuffer.obtainTemplate();
+            p.mSpeedX = random.nextFloat() - 0.5f;
+            p.mSpeedY = random.nextFloat() - 0.5f;
+            mBuffer.add(0, 16, 16, TIME_TO_LIVE, random.nextInt(AREA_SIZE), random.nextInt(AREA_SIZE), 0);
+        }
+    }
+
+    @Benchmark
+    public ParticleBuffer applyForce() {
+        mTime = (mTime + 16) % TIME_TO_LIVE;
+        Arrays.fill(mBuffer.mElapsed, 0, mBuffer.mCount, mTime);
+        mForceField.applyForce(mBuffer, 0, mBuffer.mCount);
+        return mBuffer;
+    }
+
+    static ForceField createForce(String name) {
+        switch (name) {
+            case "attractor":
+                return new AttractorForce(AREA_SIZE / 2, AREA_SIZE / 2, 0.001f, AREA_SIZE / 2);
+            case "vortex":
+                return new VortexForce(AREA_SIZE / 2, AREA_SIZE / 2, 0.001f, AREA_SIZE / 2);
+            case "turbulence":
+                return new TurbulenceForce(0.0005f, 200, 2000);
+            case "flow-field":
+                return new FlowFieldForce(new FlowField.Builder().build(), 0.0005f, AREA_SIZE, 2000);
+            case "drag":
+                return new DragForce(0.002f);
+            default:
+                throw new IllegalArgumentException("Unknown force " + name);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.plattysoft.leonids;
+
+import com.plattysoft.leonids.modifiers.DragForce;
+import com.plattysoft.leonids.modifiers.FlowField;
+import com.plattysoft.leonids.modifiers.FlowFieldForce;
+import com.plattysoft.leonids.modifiers.VortexForce;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Checks that the frames of a running simulation do not allocate once it is warmed up. It runs
+ * continuous emitters until they reach the steady state, then counts the bytes allocated by the
+ * thread over many more frames and fails if there are any. It is run by the check task.
+ */
+public class FrameAllocationCheck {
+
+    private static final long FRAME_TIME = 16;
+    private static final long TIME_TO_LIVE = 1000;
+    private static final int MAX_PARTICLES = 2000;
+    private static final int PARTICLES_PER_SECOND = 1000;
+    private static final int MEASURED_FRAMES = 10000;
+
+    private static com.sun.management.ThreadMXBean sThreads;
+
+    public static void main(String[] args) {
+        sThreads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        sThreads.setThreadAllocatedMemoryEnabled(true);
+        int failures = 0;
+        failures += check("objects", BenchmarkEmitter.create(false, MAX_PARTICLES, TIME_TO_LIVE));
+        failures += check("packed", BenchmarkEmitter.create(true, MAX_PARTICLES, TIME_TO_LIVE));
+        ParticleSimulation fixed = BenchmarkEmitter.create(true, MAX_PARTICLES, TIME_TO_LIVE);
+        fixed.setFixedTimestep(20, 4);
+        failures += check("packed-fixed-timestep", fixed);
+        ParticleSimulation grid = BenchmarkEmitter.create(true, MAX_PARTICLES, TIME_TO_LIVE);
+        grid.setViewport(0, 0, 1000, 1000);
+        grid.setGridCellSize(64);
+        failures += check("packed-grid", grid);
+        ParticleSimulation forces = BenchmarkEmitter.create(true, MAX_PARTICLES, TIME_TO_LIVE);
+        forces.setIntegratedMotion(true);
+        forces.addModifier(new VortexForce(500, 500, 0.001f, 300));
+        forces.addModifier(new FlowFieldForce(new FlowField.Builder().build(), 0.0005f, 500, 2000));
+        forces.addModifier(new DragForce(0.002f));
+        failures += check("packed-forces", forces);
+        ParticleSimulation collisions = BenchmarkEmitter.create(true, MAX_PARTICLES, TIME_TO_LIVE);
+        collisions.setViewport(0, 0, 1000, 1000);
+        collisions.setIntegratedMotion(true);
+        ParticleColliders colliders = new ParticleColliders();
+        colliders.add(0, 800, 1000, 1800, false);
+        colliders.add(200, 300, 320, 348, false);
+        colliders.add(600, 300, 720, 348, true);
+        collisions.setColliders(colliders);
+        failures += check("packed-collisions", collisions);
+        if (failures > 0) {
+            throw new IllegalStateException(failures + " configurations allocate in the steady state");
+        }
+    }
+
+    private static int check(String name, ParticleSimulation simulation) {
+        simulation.startEmitting(PARTICLES_PER_SECOND, -1);
+        long time = 0;
+        // Reach the steady state and let the JIT compile the update
+        for (; time < 20 * TIME_TO_LIVE; time += FRAME_TIME) {
+            simulation.advance(time);
+        }
+        // Reading the counter may allocate, that is measured and discounted
+        long start = allocatedBytes();
+        long overhead = allocatedBytes() - start;
+        long before = allocatedBytes();
+        for (int i = 0; i < MEASURED_FRAMES; i++) {
+            time += FRAME_TIME;
+            simulation.advance(time);
+        }
+        long allocated = allocatedBytes() - before - overhead;
+        System.out.println(name + ": " + allocated + " bytes in " + MEASURED_FRAMES + " frames");
+        return allocated > 0 ? 1 : 0;
+    }
+
+    private static long allocatedBytes() {
+        return sThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
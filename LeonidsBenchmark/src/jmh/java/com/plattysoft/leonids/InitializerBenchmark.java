@@ -0,0 +1,74 @@
+package com.plattysoft.leonids;
+
+import com.plattysoft.leonids.initializers.AccelerationInitializer;
+import com.plattysoft.leonids.initializers.ParticleInitializer;
+import com.plattysoft.leonids.initializers.RotationInitializer;
+import com.plattysoft.leonids.initializers.RotationSpeedInitializer;
+import com.plattysoft.leonids.initializers.ScaleInitializer;
+import com.plattysoft.leonids.initializers.SpeedModuleAndRangeInitializer;
+import com.plattysoft.leonids.initializers.SpeeddByComponentsInitializer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * Each initializer applied to a set of particles, with java.util.Random and with ParticleRandom.
+ */
+@State(Scope.Thread)
+public class InitializerBenchmark {
+
+    @Param({"100", "1000", "10000", "100000"})
+    public int mParticleCount;
+
+    @Param({"acceleration", "rotation", "rotationSpeed", "scale", "speedModuleAndRange", "speedByComponents"})
+    public String mInitializer;
+
+    @Param({"java", "particle"})
+    public String mRandomType;
+
+    private Particle[] mParticles;
+    private ParticleInitializer mParticleInitializer;
+    private Random mRandom;
+
+    @Setup
+    public void setUp() {
+        mParticles = new Particle[mParticleCount];
+        for (int i = 0; i < mParticleCount; i++) {
+            mParticles[i] = new Particle(BenchmarkEmitter.REGION);
+        }
+        mParticleInitializer = createInitializer(mInitializer);
+        mRandom = "particle".equals(mRandomType) ? new ParticleRandom(42) : new Random(42);
+    }
+
+    @Benchmark
+    public Particle[] initParticles() {
+        for (int i = 0; i < mParticles.length; i++) {
+            mParticleInitializer.initParticle(mParticles[i], mRandom);
+        }
+        return mParticles;
+    }
+
+    static ParticleInitializer createInitializer(String name) {
+        switch (name) {
+            case "acceleration":
+                return new AccelerationInitializer(0.0001f, 0.0002f, 0, 180);
+            case "rotation":
+                return new RotationInitializer(0, 360);
+            case "rotationSpeed":
+                return new RotationSpeedInitializer(90, 180);
+            case "scale":
+                return new ScaleInitializer(0.5f, 1.5f);
+            case "speedModuleAndRange":
+                return new SpeedModuleAndRangeInitializer(0.1f, 0.3f, 0, 360);
+            case "speedByComponents":
+                return new SpeeddByComponentsInitializer(-0.1f, 0.1f, -0.3f, 0f);
+            default:
+                throw new IllegalArgumentException("Unknown initializer " + name);
+        }
+    }
+}
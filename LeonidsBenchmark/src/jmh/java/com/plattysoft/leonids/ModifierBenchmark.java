@@ -0,0 +1,94 @@
+package com.plattysoft.leonids;
+
+import com.plattysoft.leonids.modifiers.AccelerationModifier;
+import com.plattysoft.leonids.modifiers.BakedInterpolator;
+import com.plattysoft.leonids.modifiers.BaseAlphaModifier;
+import com.plattysoft.leonids.modifiers.BaseScaleModifier;
+import com.plattysoft.leonids.modifiers.BatchModifier;
+import com.plattysoft.leonids.modifiers.ParticleInterpolator;
+import com.plattysoft.leonids.modifiers.ParticleModifier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+
+/**
+ * Each modifier applied to a set of particles, at a time inside its interpolation range, one
+ * particle at a time and in batch over a packed buffer.
+ */
+@State(Scope.Thread)
+public class ModifierBenchmark {
+
+    private static final long TIME_TO_LIVE = 1000;
+
+    // Same curve as android.view.animation.AccelerateInterpolator with a factor of 1.5
+    private static final ParticleInterpolator ACCELERATE = new ParticleInterpolator() {
+        @Override
+        public float getInterpolation(float input) {
+            return (float) Math.pow(input, 3);
+        }
+    };
+
+    @Param({"100", "1000", "10000", "100000"})
+    public int mParticleCount;
+
+    @Param({"acceleration", "alpha", "scale", "alpha-curve", "alpha-baked"})
+    public String mModifier;
+
+    private Particle[] mParticles;
+    private ParticleModifier mParticleModifier;
+    private ParticleBuffer mBuffer;
+    private long mTime;
+
+    @Setup
+    public void setUp() {
+        mParticles = new Particle[mParticleCount];
+        for (int i = 0; i < mParticleCount; i++) {
+            mParticles[i] = new Particle(BenchmarkEmitter.REGION);
+        }
+        mParticleModifier = createModifier(mModifier);
+        mBuffer = new ParticleBuffer(mParticleCount);
+        for (int i = 0; i < mParticleCount; i++) {
+            mBuffer.obtainTemplate();
+            mBuffer.add(0, 16, 16, TIME_TO_LIVE, 0, 0, 0);
+        }
+    }
+
+    @Benchmark
+    public Particle[] apply() {
+        mTime = (mTime + 16) % TIME_TO_LIVE;
+        for (int i = 0; i < mParticles.length; i++) {
+            mParticleModifier.apply(mParticles[i], mTime);
+        }
+        return mParticles;
+    }
+
+    @Benchmark
+    public ParticleBuffer applyBatch() {
+        mTime = (mTime + 16) % TIME_TO_LIVE;
+        Arrays.fill(mBuffer.mElapsed, 0, mBuffer.mCount, mTime);
+        ((BatchModifier) mParticleModifier).apply(mBuffer, 0, mBuffer.mCount);
+        return mBuffer;
+    }
+
+    static ParticleModifier createModifier(String name) {
+        switch (name) {
+            case "acceleration":
+                return new AccelerationModifier(0.0001f, 90);
+            case "alpha":
+                return new BaseAlphaModifier(255, 0, 0, TIME_TO_LIVE, ParticleInterpolator.LINEAR);
+            case "scale":
+                return new BaseScaleModifier(1f, 0.5f, 0, TIME_TO_LIVE, ParticleInterpolator.LINEAR);
+            case "alpha-curve":
+                return new BaseAlphaModifier(255, 0, 0, TIME_TO_LIVE, ACCELERATE);
+            case "alpha-baked":
+                return new BaseAlphaModifier(255, 0, 0, TIME_TO_LIVE, ACCELERATE, BakedInterpolator.DEFAULT_SAMPLES);
+            default:
+                throw new IllegalArgumentException("Unknown modifier " + name);
+        }
+    }
+}
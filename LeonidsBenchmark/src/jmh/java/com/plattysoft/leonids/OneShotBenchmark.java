@@ -0,0 +1,51 @@
+package com.plattysoft.leonids;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * ParticleSimulation.oneShot: activating a whole burst of particles at once, one by one with
+ * objects and in bulk with packed storage, optionally on worker threads.
+ */
+@State(Scope.Thread)
+public class OneShotBenchmark {
+
+    @Param({"1000", "5000", "100000"})
+    public int mParticleCount;
+
+    @Param({"objects", "packed", "packed-executor"})
+    public String mStorage;
+
+    private ParticleSimulation mSimulation;
+    private ExecutorService mExecutor;
+
+    @Setup
+    public void setUp() {
+        mSimulation = BenchmarkEmitter.create(mStorage.startsWith("packed"), mParticleCount, 1000);
+        if (mStorage.equals("packed-executor")) {
+            mExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+            mSimulation.setSpawnExecutor(mExecutor);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (mExecutor != null) {
+            mExecutor.shutdown();
+        }
+    }
+
+    @Benchmark
+    public int oneShot() {
+        mSimulation.clear();
+        mSimulation.oneShot(mParticleCount);
+        return mSimulation.getActiveCount();
+    }
+}
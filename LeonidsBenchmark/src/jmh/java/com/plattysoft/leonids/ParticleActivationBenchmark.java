@@ -0,0 +1,34 @@
+package com.plattysoft.leonids;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * ParticleSimulation.activateParticle: taking a particle from the pool and running the initializers.
+ * When the pool runs out all the particles are returned to it.
+ */
+@State(Scope.Thread)
+public class ParticleActivationBenchmark {
+
+    @Param({"100", "1000", "10000", "100000"})
+    public int mMaxParticles;
+
+    private ParticleSimulation mSimulation;
+
+    @Setup
+    public void setUp() {
+        mSimulation = BenchmarkEmitter.create(false, mMaxParticles, 1000);
+    }
+
+    @Benchmark
+    public int activate() {
+        if (!mSimulation.hasAvailableParticles()) {
+            mSimulation.clear();
+        }
+        mSimulation.activateParticle(0);
+        return mSimulation.getActiveCount();
+    }
+}
@@ -0,0 +1,47 @@
+package com.plattysoft.leonids;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Frames of a continuous emitter in steady state: particles are activated at the emission rate
+ * and die after their time to live, so the pool and the active set are exercised on every frame.
+ */
+@State(Scope.Thread)
+public class ParticleEmissionBenchmark {
+
+    private static final long FRAME_TIME = 16;
+    private static final long TIME_TO_LIVE = 1000;
+
+    @Param({"100", "1000", "10000", "100000"})
+    public int mMaxParticles;
+
+    @Param({"100", "1000", "10000", "100000"})
+    public int mParticlesPerSecond;
+
+    @Param({"objects", "packed"})
+    public String mStorage;
+
+    private ParticleSimulation mSimulation;
+    private long mTime;
+
+    @Setup
+    public void setUp() {
+        mSimulation = BenchmarkEmitter.create("packed".equals(mStorage), mMaxParticles, TIME_TO_LIVE);
+        mSimulation.startEmitting(mParticlesPerSecond, -1);
+        // Reach the steady state before measuring
+        for (mTime = 0; mTime < 2 * TIME_TO_LIVE; mTime += FRAME_TIME) {
+            mSimulation.update(mTime);
+        }
+    }
+
+    @Benchmark
+    public int frame() {
+        mTime += FRAME_TIME;
+        mSimulation.update(mTime);
+        return mSimulation.getActiveCount();
+    }
+}
@@ -0,0 +1,74 @@
+package com.plattysoft.leonids;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Finding the particles near a point with the spatial grid, against checking all the particles of
+ * the snapshot, and the cost the grid adds to the update. The particles are spread over a 2000x2000
+ * viewport and the queries cover a finger sized area.
+ */
+@State(Scope.Thread)
+public class ParticleGridBenchmark {
+
+    private static final long FRAME_TIME = 16;
+    private static final int VIEWPORT_SIZE = 2000;
+    private static final float RADIUS = 48;
+    private static final float CELL_SIZE = 64;
+
+    @Param({"1000", "10000", "100000"})
+    public int mParticleCount;
+
+    private ParticleSimulation mSimulation;
+    private final int[] mResult = new int[1024];
+    private long mTime;
+    private float mQueryX;
+
+    @Setup
+    public void setUp() {
+        mSimulation = BenchmarkEmitter.create(true, mParticleCount, Long.MAX_VALUE / 2);
+        mSimulation.setEmitterRange(0, VIEWPORT_SIZE, 0, VIEWPORT_SIZE);
+        mSimulation.setViewport(0, 0, VIEWPORT_SIZE, VIEWPORT_SIZE);
+        mSimulation.setGridCellSize(CELL_SIZE);
+        mSimulation.oneShot(mParticleCount);
+        mSimulation.update(0);
+        mTime = 0;
+    }
+
+    @Benchmark
+    public int queryGrid() {
+        return mSimulation.getGrid().findInRadius(nextQueryX(), VIEWPORT_SIZE / 2, RADIUS, mResult);
+    }
+
+    @Benchmark
+    public int queryLinear() {
+        ParticleSnapshot snapshot = mSimulation.getPublished();
+        float x = nextQueryX();
+        float y = VIEWPORT_SIZE / 2;
+        int found = 0;
+        for (int i = 0; i < snapshot.mCount && found < mResult.length; i++) {
+            AtlasRegion region = snapshot.mRegion[i];
+            float dx = snapshot.mX[i] + region.mWidth / 2 - x;
+            float dy = snapshot.mY[i] + region.mHeight / 2 - y;
+            if (dx * dx + dy * dy <= RADIUS * RADIUS) {
+                mResult[found++] = i;
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public int updateWithGrid() {
+        mTime += FRAME_TIME;
+        mSimulation.update(mTime);
+        return mSimulation.getActiveCount();
+    }
+
+    private float nextQueryX() {
+        mQueryX = (mQueryX + 97) % VIEWPORT_SIZE;
+        return mQueryX;
+    }
+}
@@ -0,0 +1,48 @@
+package com.plattysoft.leonids;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+
+/**
+ * Acquiring and releasing one particle with pools of growing size. The ring buffer stays flat
+ * while the previous ArrayList.remove(0) grows with the size of the pool.
+ */
+@State(Scope.Thread)
+public class ParticlePoolBenchmark {
+
+    @Param({"100", "1000", "10000", "100000"})
+    public int mPoolSize;
+
+    private ParticlePool mPool;
+    private ArrayList<Particle> mList;
+
+    @Setup
+    public void setUp() {
+        mPool = new ParticlePool(mPoolSize);
+        mList = new ArrayList<>(mPoolSize);
+        for (int i = 0; i < mPoolSize; i++) {
+            Particle p = new Particle(BenchmarkEmitter.REGION);
+            mPool.release(p);
+            mList.add(p);
+        }
+    }
+
+    @Benchmark
+    public Particle ringBuffer() {
+        Particle p = mPool.acquire();
+        mPool.release(p);
+        return p;
+    }
+
+    @Benchmark
+    public Particle arrayListRemoveFirst() {
+        Particle p = mList.remove(0);
+        mList.add(p);
+        return p;
+    }
+}
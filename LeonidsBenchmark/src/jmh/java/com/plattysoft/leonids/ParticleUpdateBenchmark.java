@@ -0,0 +1,58 @@
+package com.plattysoft.leonids;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * One frame of ParticleSimulation.update with a full set of particles that never die, so only the
+ * update and the snapshot are measured. The packed storage is also updated in parallel on a thread
+ * pool, the threshold is lowered so every size runs in parallel.
+ */
+@State(Scope.Thread)
+public class ParticleUpdateBenchmark {
+
+    private static final long FRAME_TIME = 16;
+
+    @Param({"100", "1000", "10000", "100000"})
+    public int mParticleCount;
+
+    @Param({"objects", "packed", "packed-parallel"})
+    public String mStorage;
+
+    private ParticleSimulation mSimulation;
+    private ExecutorService mExecutor;
+    private long mTime;
+
+    @Setup
+    public void setUp() {
+        mSimulation = BenchmarkEmitter.create(mStorage.startsWith("packed"), mParticleCount, Long.MAX_VALUE / 2);
+        if (mStorage.equals("packed-parallel")) {
+            mExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+            mSimulation.setUpdateExecutor(mExecutor);
+            mSimulation.setParallelThreshold(0);
+        }
+        mSimulation.oneShot(mParticleCount);
+        mTime = 0;
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (mExecutor != null) {
+            mExecutor.shutdown();
+        }
+    }
+
+    @Benchmark
+    public int update() {
+        mTime += FRAME_TIME;
+        mSimulation.update(mTime);
+        return mSimulation.getActiveCount();
+    }
+}
@@ -0,0 +1,55 @@
+package com.plattysoft.leonids;
+
+public class AnimatedParticle extends Particle {
+
+    private final AtlasRegion[] mFrames;
+    private final int[] mFrameDurations;
+    private final boolean mOneShot;
+    private int mTotalTime;
+
+    /**
+     * @param frames         The regions of the atlas with the frames of the animation
+     * @param frameDurations The duration of each frame in milliseconds
+     * @param oneShot        If the particle dies when the animation ends instead of repeating it
+     */
+    public AnimatedParticle(AtlasRegion[] frames, int[] frameDurations, boolean oneShot) {
+        mFrames = frames;
+        mFrameDurations = frameDurations;
+        mOneShot = oneShot;
+        mRegion = mFrames[0];
+        // If it is a repeating animation, calculate the time
+        mTotalTime = 0;
+        for (int i = 0; i < mFrameDurations.length; i++) {
+            mTotalTime += mFrameDurations[i];
+        }
+    }
+
+    @Override
+    public Particle copy() {
+        return new AnimatedParticle(mFrames, mFrameDurations, mOneShot);
+    }
+
+    @Override
+    public boolean update(long miliseconds) {
+        boolean active = super.update(miliseconds);
+        if (active) {
+            long animationElapsedTime = 0;
+            long realMiliseconds = miliseconds - mStartingMilisecond;
+            if (realMiliseconds > mTotalTime) {
+                if (mOneShot) {
+                    return false;
+                } else {
+                    realMiliseconds = realMiliseconds % mTotalTime;
+                }
+            }
+            for (int i = 0; i < mFrames.length; i++) {
+                animationElapsedTime += mFrameDurations[i];
+                if (animationElapsedTime > realMiliseconds) {
+                    mRegion = mFrames[i];
+                    break;
+                }
+            }
+        }
+        return active;
+    }
+}
@@ -0,0 +1,22 @@
+package com.plattysoft.leonids;
+
+/**
+ * Area of a {@link TextureAtlas} that contains the image of a particle, in pixels.
+ */
+public class AtlasRegion {
+
+    public int mLeft;
+    public int mTop;
+    public final int mWidth;
+    public final int mHeight;
+    // Distance from the center to the corners, the image is inside this radius at any rotation
+    public final float mRadius;
+
+    public AtlasRegion(int left, int top, int width, int height) {
+        mLeft = left;
+        mTop = top;
+        mWidth = width;
+        mHeight = height;
+        mRadius = (float) Math.sqrt(width * width + height * height) / 2;
+    }
+}
@@ -1,10 +1,5 @@
 package com.plattysoft.leonids;
 
-import android.graphics.Bitmap;
-import android.graphics.Canvas;
-import android.graphics.Matrix;
-import android.graphics.Paint;
-
 import com.plattysoft.leonids.modifiers.ParticleModifier;
 
 import java.util.List;
@@ -21,13 +16,15 @@ public class Particle {
     public float mSpeedY = 0f;
     public float mAccelerationX;
     public float mAccelerationY;
-    protected Bitmap mImage;
+    protected AtlasRegion mRegion;
     protected long mStartingMilisecond;
-    private Matrix mMatrix;
-    private Paint mPaint;
+    protected float mRotation;
+    // State of the previous step, used to draw in between steps with a fixed timestep
+    protected float mPreviousX;
+    protected float mPreviousY;
+    protected float mPreviousRotation;
     private float mInitialX;
     private float mInitialY;
-    private float mRotation;
     private long mTimeToLive;
     private int mBitmapHalfWidth;
     private int mBitmapHalfHeight;
@@ -36,13 +33,18 @@ public class Particle {
 
 
     protected Particle() {
-        mMatrix = new Matrix();
-        mPaint = new Paint();
     }
 
-    public Particle(Bitmap bitmap) {
+    public Particle(AtlasRegion region) {
         this();
-        mImage = bitmap;
+        mRegion = region;
+    }
+
+    /**
+     * Creates a new particle that uses the same images as this one.
+     */
+    public Particle copy() {
+        return new Particle(mRegion);
     }
 
     public void init() {
@@ -51,13 +53,16 @@ public class Particle {
     }
 
     public void configure(long timeToLive, float emiterX, float emiterY) {
-        mBitmapHalfWidth = mImage.getWidth() / 2;
-        mBitmapHalfHeight = mImage.getHeight() / 2;
+        mBitmapHalfWidth = mRegion.mWidth / 2;
+        mBitmapHalfHeight = mRegion.mHeight / 2;
 
         mInitialX = emiterX - mBitmapHalfWidth;
         mInitialY = emiterY - mBitmapHalfHeight;
         mCurrentX = mInitialX;
         mCurrentY = mInitialY;
+        mPreviousX = mInitialX;
+        mPreviousY = mInitialY;
+        mPreviousRotation = mInitialRotation;
 
         mTimeToLive = timeToLive;
     }
@@ -76,13 +81,13 @@ public class Particle {
         return true;
     }
 
-    public void draw(Canvas c) {
-        mMatrix.reset();
-        mMatrix.postRotate(mRotation, mBitmapHalfWidth, mBitmapHalfHeight);
-        mMatrix.postScale(mScale, mScale, mBitmapHalfWidth, mBitmapHalfHeight);
-        mMatrix.postTranslate(mCurrentX, mCurrentY);
-        mPaint.setAlpha(mAlpha);
-        c.drawBitmap(mImage, mMatrix, mPaint);
+    /**
+     * Keeps the current position and rotation as the previous ones, before the next update.
+     */
+    public void savePrevious() {
+        mPreviousX = mCurrentX;
+        mPreviousY = mCurrentY;
+        mPreviousRotation = mRotation;
     }
 
     public Particle activate(long startingMilisecond, List<ParticleModifier> modifiers) {
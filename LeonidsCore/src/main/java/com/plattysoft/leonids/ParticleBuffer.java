@@ -0,0 +1,446 @@
+package com.plattysoft.leonids;
+
+import com.plattysoft.leonids.initializers.ParticleInitializer;
+import com.plattysoft.leonids.modifiers.BatchModifier;
+import com.plattysoft.leonids.modifiers.ForceField;
+import com.plattysoft.leonids.modifiers.ParticleModifier;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Packed particle storage. Instead of one {@link Particle} object per particle, the state of all
+ * the particles is kept in parallel primitive arrays indexed by slot.
+ * <p>
+ * The active particles always occupy the slots [0, mCount), when a particle dies the last active
+ * one is moved into its slot, so there are never holes to skip during update or draw.
+ * <p>
+ * The motion, the rotation and the modifiers that implement {@link BatchModifier} are evaluated
+ * over the whole arrays in simple loops, the rest of the modifiers one particle at a time.
+ * <p>
+ * By default the position is a closed form of the time: speed * t + acceleration * t^2. With
+ * integrated motion each particle has a velocity instead, the {@link ForceField} modifiers add up
+ * their accelerations on every step and the velocity and the position are integrated with
+ * semi-implicit Euler.
+ */
+public class ParticleBuffer {
+
+    // Longer steps are integrated as this, so a long pause does not make the forces blow up
+    private static final float MAX_INTEGRATION_STEP = 100;
+
+    public final int mCapacity;
+    public int mCount;
+
+    public final float[] mInitialX;
+    public final float[] mInitialY;
+    public final float[] mCurrentX;
+    public final float[] mCurrentY;
+    public final float[] mSpeedX;
+    public final float[] mSpeedY;
+    public final float[] mAccelerationX;
+    public final float[] mAccelerationY;
+    public final float[] mInitialRotation;
+    public final float[] mRotationSpeed;
+    public final float[] mRotation;
+    public final float[] mScale;
+    public final int[] mAlpha;
+    public final int[] mImage;
+    public final long[] mStartingMilisecond;
+    public final long[] mTimeToLive;
+    // Time since each particle was activated, set by the update
+    public final float[] mElapsed;
+    // Time of the simulation on the current update
+    public long mTime;
+    // State of the previous step, used to draw in between steps with a fixed timestep
+    public final float[] mPreviousX;
+    public final float[] mPreviousY;
+    public final float[] mPreviousRotation;
+
+    // Integrated motion, null until it is enabled
+    public float[] mVelocityX;
+    public float[] mVelocityY;
+    // Acceleration added by the forces on the current step, in pixels per square millisecond
+    public float[] mForceX;
+    public float[] mForceY;
+    // Elapsed time of each particle on its last integration
+    public float[] mIntegratedTime;
+    // Half of the size of each image, to get the center of the particles
+    public float[] mImageHalfWidth;
+    public float[] mImageHalfHeight;
+    private boolean mIntegrating;
+    private AtlasRegion[] mImages;
+
+    // Used to run initializers and modifiers, which work on Particle objects
+    private final Particle mTemplate = new Particle();
+
+    public ParticleBuffer(int capacity) {
+        mCapacity = capacity;
+        mInitialX = new float[capacity];
+        mInitialY = new float[capacity];
+        mCurrentX = new float[capacity];
+        mCurrentY = new float[capacity];
+        mSpeedX = new float[capacity];
+        mSpeedY = new float[capacity];
+        mAccelerationX = new float[capacity];
+        mAccelerationY = new float[capacity];
+        mInitialRotation = new float[capacity];
+        mRotationSpeed = new float[capacity];
+        mRotation = new float[capacity];
+        mScale = new float[capacity];
+        mAlpha = new int[capacity];
+        mImage = new int[capacity];
+        mStartingMilisecond = new long[capacity];
+        mTimeToLive = new long[capacity];
+        mElapsed = new float[capacity];
+        mPreviousX = new float[capacity];
+        mPreviousY = new float[capacity];
+        mPreviousRotation = new float[capacity];
+    }
+
+    /**
+     * Switches to integrated motion, the velocity of each particle starts at its speed. It needs to
+     * be enabled before the particles are added.
+     *
+     * @param images the images of the particles, to apply the forces at their centers
+     */
+    public void enableIntegration(AtlasRegion[] images) {
+        if (mVelocityX == null) {
+            mVelocityX = new float[mCapacity];
+            mVelocityY = new float[mCapacity];
+            mForceX = new float[mCapacity];
+            mForceY = new float[mCapacity];
+            mIntegratedTime = new float[mCapacity];
+        }
+        if (mImages != images) {
+            mImages = images;
+            mImageHalfWidth = new float[images.length];
+            mImageHalfHeight = new float[images.length];
+            for (int i = 0; i < images.length; i++) {
+                mImageHalfWidth[i] = images[i].mWidth / 2;
+                mImageHalfHeight[i] = images[i].mHeight / 2;
+            }
+        }
+        mIntegrating = true;
+    }
+
+    /**
+     * Goes back to the closed form motion.
+     */
+    public void disableIntegration() {
+        mIntegrating = false;
+    }
+
+    public boolean isIntegrating() {
+        return mIntegrating;
+    }
+
+    public boolean isFull() {
+        return mCount == mCapacity;
+    }
+
+    /**
+     * Returns a particle with default values for the initializers to work on. Once initialized it
+     * has to be stored with {@link #add(int, int, int, long, float, float, long)}.
+     */
+    public Particle obtainTemplate() {
+        Particle p = mTemplate;
+        p.init();
+        p.mInitialRotation = 0f;
+        p.mRotationSpeed = 0f;
+        p.mSpeedX = 0f;
+        p.mSpeedY = 0f;
+        p.mAccelerationX = 0f;
+        p.mAccelerationY = 0f;
+        return p;
+    }
+
+    /**
+     * Stores the values of the template in a new slot.
+     *
+     * @return the slot used, or -1 if the buffer is full
+     */
+    public int add(int image, int imageHalfWidth, int imageHalfHeight, long timeToLive,
+                   float emiterX, float emiterY, long startingMilisecond) {
+        if (mCount == mCapacity) {
+            return -1;
+        }
+        int i = mCount++;
+        Particle p = mTemplate;
+        mInitialX[i] = emiterX - imageHalfWidth;
+        mInitialY[i] = emiterY - imageHalfHeight;
+        mCurrentX[i] = mInitialX[i];
+        mCurrentY[i] = mInitialY[i];
+        mSpeedX[i] = p.mSpeedX;
+        mSpeedY[i] = p.mSpeedY;
+        mAccelerationX[i] = p.mAccelerationX;
+        mAccelerationY[i] = p.mAccelerationY;
+        mInitialRotation[i] = p.mInitialRotation;
+        mRotationSpeed[i] = p.mRotationSpeed;
+        mRotation[i] = p.mInitialRotation;
+        mPreviousX[i] = mInitialX[i];
+        mPreviousY[i] = mInitialY[i];
+        mPreviousRotation[i] = p.mInitialRotation;
+        if (mIntegrating) {
+            startIntegration(i);
+        }
+        mScale[i] = p.mScale;
+        mAlpha[i] = p.mAlpha;
+        mImage[i] = image;
+        mStartingMilisecond[i] = startingMilisecond;
+        mTimeToLive[i] = timeToLive;
+        return i;
+    }
+
+    /**
+     * Adds particles with the default values, to be initialized in bulk. The initial position and
+     * the image need to be set with {@link #place(int, int, int, int, float, float)} afterwards.
+     *
+     * @return the number of particles added, limited by the capacity
+     */
+    public int addBulk(int count, long timeToLive, long startingMilisecond) {
+        int from = mCount;
+        int to = Math.min(from + count, mCapacity);
+        for (int i = from; i < to; i++) {
+            mSpeedX[i] = 0f;
+            mSpeedY[i] = 0f;
+            mAccelerationX[i] = 0f;
+            mAccelerationY[i] = 0f;
+            mInitialRotation[i] = 0f;
+            mRotationSpeed[i] = 0f;
+            mScale[i] = 1f;
+            mAlpha[i] = 255;
+            mStartingMilisecond[i] = startingMilisecond;
+            mTimeToLive[i] = timeToLive;
+        }
+        mCount = to;
+        return to - from;
+    }
+
+    /**
+     * Sets the image and initial position of a slot added with {@link #addBulk(int, long, long)},
+     * once the initializers have run.
+     */
+    public void place(int slot, int image, int imageHalfWidth, int imageHalfHeight, float emiterX, float emiterY) {
+        mImage[slot] = image;
+        mInitialX[slot] = emiterX - imageHalfWidth;
+        mInitialY[slot] = emiterY - imageHalfHeight;
+        mCurrentX[slot] = mInitialX[slot];
+        mCurrentY[slot] = mInitialY[slot];
+        mRotation[slot] = mInitialRotation[slot];
+        mPreviousX[slot] = mInitialX[slot];
+        mPreviousY[slot] = mInitialY[slot];
+        mPreviousRotation[slot] = mInitialRotation[slot];
+        if (mIntegrating) {
+            startIntegration(slot);
+        }
+    }
+
+    private void startIntegration(int slot) {
+        mVelocityX[slot] = mSpeedX[slot];
+        mVelocityY[slot] = mSpeedY[slot];
+        mIntegratedTime[slot] = 0f;
+    }
+
+    /**
+     * Runs an initializer that does not support batches over the slots [from, to) using the given
+     * particle, which must not be shared with other threads.
+     */
+    public void initOneByOne(ParticleInitializer initializer, int from, int to, Random random, Particle p) {
+        for (int i = from; i < to; i++) {
+            load(i, p);
+            initializer.initParticle(p, random);
+            mSpeedX[i] = p.mSpeedX;
+            mSpeedY[i] = p.mSpeedY;
+            mAccelerationX[i] = p.mAccelerationX;
+            mAccelerationY[i] = p.mAccelerationY;
+            mInitialRotation[i] = p.mInitialRotation;
+            mRotationSpeed[i] = p.mRotationSpeed;
+            mScale[i] = p.mScale;
+            mAlpha[i] = p.mAlpha;
+        }
+    }
+
+    /**
+     * Keeps the current positions and rotations of the active particles as the previous ones,
+     * before the next update.
+     */
+    public void savePrevious() {
+        System.arraycopy(mCurrentX, 0, mPreviousX, 0, mCount);
+        System.arraycopy(mCurrentY, 0, mPreviousY, 0, mCount);
+        System.arraycopy(mRotation, 0, mPreviousRotation, 0, mCount);
+    }
+
+    /**
+     * Updates all the active particles, the ones that have expired are removed.
+     */
+    public void update(long miliseconds, List<ParticleModifier> modifiers) {
+        removeExpired(miliseconds);
+        step(miliseconds, modifiers, 0, mCount, mTemplate);
+    }
+
+    /**
+     * Removes the particles that have expired and sets the elapsed time of the rest. It has to run
+     * before {@link #step(long, List, int, int, Particle)}.
+     */
+    public void removeExpired(long miliseconds) {
+        mTime = miliseconds;
+        int i = 0;
+        while (i < mCount) {
+            long realMiliseconds = miliseconds - mStartingMilisecond[i];
+            if (realMiliseconds > mTimeToLive[i]) {
+                remove(i);
+                // The last particle has been moved here, it needs to be checked too
+                continue;
+            }
+            mElapsed[i] = realMiliseconds;
+            i++;
+        }
+    }
+
+    /**
+     * Updates the motion, the rotation and applies the modifiers to the particles in the slots
+     * [from, to). Different ranges can be stepped on different threads, each one with its own
+     * particle to run the modifiers that do not support batches.
+     */
+    public void step(long miliseconds, List<ParticleModifier> modifiers, int from, int to, Particle template) {
+        float[] elapsed = mElapsed;
+        boolean integrating = mIntegrating;
+        if (integrating) {
+            integrate(modifiers, from, to);
+        } else {
+            for (int i = from; i < to; i++) {
+                float t = elapsed[i];
+                mCurrentX[i] = mInitialX[i] + mSpeedX[i] * t + mAccelerationX[i] * t * t;
+                mCurrentY[i] = mInitialY[i] + mSpeedY[i] * t + mAccelerationY[i] * t * t;
+            }
+        }
+        for (int i = from; i < to; i++) {
+            mRotation[i] = mInitialRotation[i] + mRotationSpeed[i] * elapsed[i] / 1000;
+        }
+        // The modifiers are applied in order, consecutive ones without batch support in a single pass
+        int numModifiers = modifiers.size();
+        int j = 0;
+        while (j < numModifiers) {
+            ParticleModifier modifier = modifiers.get(j);
+            if (integrating && modifier instanceof ForceField) {
+                // Already applied by the integration
+                j++;
+                continue;
+            }
+            if (modifier instanceof BatchModifier) {
+                ((BatchModifier) modifier).apply(this, from, to);
+                j++;
+                continue;
+            }
+            int end = j + 1;
+            while (end < numModifiers && !(modifiers.get(end) instanceof BatchModifier)
+                    && !(integrating && modifiers.get(end) instanceof ForceField)) {
+                end++;
+            }
+            applyOneByOne(miliseconds, modifiers, j, end, from, to, template);
+            j = end;
+        }
+    }
+
+    /**
+     * Adds up the accelerations of the forces, then integrates the velocity and the position over
+     * the time since the last step of each particle.
+     */
+    private void integrate(List<ParticleModifier> modifiers, int from, int to) {
+        float[] forceX = mForceX;
+        float[] forceY = mForceY;
+        Arrays.fill(forceX, from, to, 0f);
+        Arrays.fill(forceY, from, to, 0f);
+        for (int j = 0; j < modifiers.size(); j++) {
+            ParticleModifier modifier = modifiers.get(j);
+            if (modifier instanceof ForceField) {
+                ((ForceField) modifier).applyForce(this, from, to);
+            }
+        }
+        float[] elapsed = mElapsed;
+        float[] integrated = mIntegratedTime;
+        float[] velocityX = mVelocityX;
+        float[] velocityY = mVelocityY;
+        for (int i = from; i < to; i++) {
+            float dt = Math.min(MAX_INTEGRATION_STEP, Math.max(0f, elapsed[i] - integrated[i]));
+            integrated[i] = elapsed[i];
+            // The acceleration is the coefficient of t^2 in the closed form, its derivative is twice it
+            velocityX[i] += (2 * mAccelerationX[i] + forceX[i]) * dt;
+            velocityY[i] += (2 * mAccelerationY[i] + forceY[i]) * dt;
+            mCurrentX[i] += velocityX[i] * dt;
+            mCurrentY[i] += velocityY[i] * dt;
+        }
+    }
+
+    private void applyOneByOne(long miliseconds, List<ParticleModifier> modifiers, int first, int last,
+                               int from, int to, Particle template) {
+        for (int i = from; i < to; i++) {
+            long realMiliseconds = miliseconds - mStartingMilisecond[i];
+            load(i, template);
+            for (int j = first; j < last; j++) {
+                modifiers.get(j).apply(template, realMiliseconds);
+            }
+            store(template, i);
+        }
+    }
+
+    /**
+     * Removes the particle at the given slot by moving the last active particle into it.
+     */
+    public void remove(int slot) {
+        int last = --mCount;
+        if (slot != last) {
+            mInitialX[slot] = mInitialX[last];
+            mInitialY[slot] = mInitialY[last];
+            mCurrentX[slot] = mCurrentX[last];
+            mCurrentY[slot] = mCurrentY[last];
+            mSpeedX[slot] = mSpeedX[last];
+            mSpeedY[slot] = mSpeedY[last];
+            mAccelerationX[slot] = mAccelerationX[last];
+            mAccelerationY[slot] = mAccelerationY[last];
+            mInitialRotation[slot] = mInitialRotation[last];
+            mRotationSpeed[slot] = mRotationSpeed[last];
+            mRotation[slot] = mRotation[last];
+            mScale[slot] = mScale[last];
+            mAlpha[slot] = mAlpha[last];
+            mImage[slot] = mImage[last];
+            mStartingMilisecond[slot] = mStartingMilisecond[last];
+            mTimeToLive[slot] = mTimeToLive[last];
+            mElapsed[slot] = mElapsed[last];
+            mPreviousX[slot] = mPreviousX[last];
+            mPreviousY[slot] = mPreviousY[last];
+            mPreviousRotation[slot] = mPreviousRotation[last];
+            if (mVelocityX != null) {
+                mVelocityX[slot] = mVelocityX[last];
+                mVelocityY[slot] = mVelocityY[last];
+                mIntegratedTime[slot] = mIntegratedTime[last];
+            }
+        }
+    }
+
+    public void clear() {
+        mCount = 0;
+    }
+
+    private void load(int slot, Particle p) {
+        p.mCurrentX = mCurrentX[slot];
+        p.mCurrentY = mCurrentY[slot];
+        p.mScale = mScale[slot];
+        p.mAlpha = mAlpha[slot];
+        p.mInitialRotation = mInitialRotation[slot];
+        p.mRotationSpeed = mRotationSpeed[slot];
+        p.mSpeedX = mSpeedX[slot];
+        p.mSpeedY = mSpeedY[slot];
+        p.mAccelerationX = mAccelerationX[slot];
+        p.mAccelerationY = mAccelerationY[slot];
+        p.mStartingMilisecond = mStartingMilisecond[slot];
+    }
+
+    private void store(Particle p, int slot) {
+        mCurrentX[slot] = p.mCurrentX;
+        mCurrentY[slot] = p.mCurrentY;
+        mScale[slot] = p.mScale;
+        mAlpha[slot] = p.mAlpha;
+    }
+}
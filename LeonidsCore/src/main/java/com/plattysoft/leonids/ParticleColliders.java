@@ -0,0 +1,299 @@
+package com.plattysoft.leonids;
+
+import java.util.Arrays;
+
+/**
+ * Axis aligned rectangles the particles of a packed buffer collide with. A particle hits a
+ * rectangle when its image, without rotation, overlaps it. On a hit the particle either bounces,
+ * losing part of its velocity, or dies.
+ * <p>
+ * The rectangles are kept in a uniform grid over the viewport, so each particle is only tested
+ * against the ones in the cells it covers, and the cost stays close to one test per particle no
+ * matter how many rectangles there are. The grid is built again when the rectangles change.
+ * Empty and disabled rectangles are left out of it, so they collide with nothing.
+ */
+public class ParticleColliders {
+
+    public static final float DEFAULT_CELL_SIZE = 128;
+    // Below this speed into the surface the particle stops instead of bouncing, so it can rest on it
+    private static final float RESTING_SPEED = 0.01f;
+
+    private final float mCellSize;
+    private float mRestitution = 0.5f;
+    private float mFriction = 0.1f;
+
+    private int mCount;
+    private float[] mLeft = new float[4];
+    private float[] mTop = new float[4];
+    private float[] mRight = new float[4];
+    private float[] mBottom = new float[4];
+    private boolean[] mKill = new boolean[4];
+    private boolean[] mEnabled = new boolean[4];
+    private int mBouncing;
+
+    // Broadphase: the rectangles of each cell are mCellItems[mCellStart[cell], mCellStart[cell + 1])
+    private boolean mDirty = true;
+    private float mGridLeft;
+    private float mGridTop;
+    private int mColumns = 1;
+    private int mRows = 1;
+    private int[] mCellStart = new int[2];
+    private int[] mCellItems = new int[0];
+
+    public ParticleColliders() {
+        this(DEFAULT_CELL_SIZE);
+    }
+
+    /**
+     * @param cellSize the size of the cells of the broadphase in pixels
+     */
+    public ParticleColliders(float cellSize) {
+        if (cellSize <= 0) {
+            throw new IllegalArgumentException("The size of the cells must be positive");
+        }
+        mCellSize = cellSize;
+    }
+
+    /**
+     * Sets how the particles bounce.
+     *
+     * @param restitution fraction of the velocity into the surface that is kept, reversed
+     * @param friction    fraction of the velocity along the surface that is lost on each hit
+     */
+    public void setBounce(float restitution, float friction) {
+        mRestitution = restitution;
+        mFriction = friction;
+    }
+
+    /**
+     * Adds a rectangle, in pixels.
+     *
+     * @param kill whether the particles that hit it die instead of bouncing
+     * @return the index of the rectangle, to move it with {@link #set(int, float, float, float, float)}
+     */
+    public int add(float left, float top, float right, float bottom, boolean kill) {
+        if (mCount == mLeft.length) {
+            int capacity = mCount * 2;
+            mLeft = Arrays.copyOf(mLeft, capacity);
+            mTop = Arrays.copyOf(mTop, capacity);
+            mRight = Arrays.copyOf(mRight, capacity);
+            mBottom = Arrays.copyOf(mBottom, capacity);
+            mKill = Arrays.copyOf(mKill, capacity);
+            mEnabled = Arrays.copyOf(mEnabled, capacity);
+        }
+        int index = mCount++;
+        mKill[index] = kill;
+        mEnabled[index] = true;
+        mDirty = true;
+        if (!kill) {
+            mBouncing++;
+        }
+        set(index, left, top, right, bottom);
+        return index;
+    }
+
+    /**
+     * Moves a rectangle, the broadphase is only updated if it actually changed.
+     */
+    public void set(int index, float left, float top, float right, float bottom) {
+        if (mLeft[index] == left && mTop[index] == top && mRight[index] == right && mBottom[index] == bottom
+                && !mDirty) {
+            return;
+        }
+        mLeft[index] = left;
+        mTop[index] = top;
+        mRight[index] = right;
+        mBottom[index] = bottom;
+        mDirty = true;
+    }
+
+    /**
+     * Enables or disables a rectangle, a disabled one keeps its index but collides with nothing.
+     */
+    public void setEnabled(int index, boolean enabled) {
+        if (mEnabled[index] != enabled) {
+            mEnabled[index] = enabled;
+            mDirty = true;
+        }
+    }
+
+    public boolean isEnabled(int index) {
+        return mEnabled[index];
+    }
+
+    public int size() {
+        return mCount;
+    }
+
+    /**
+     * Whether any of the rectangles makes the particles bounce, which needs their velocity.
+     */
+    public boolean hasBouncing() {
+        return mBouncing > 0;
+    }
+
+    public void clear() {
+        mCount = 0;
+        mBouncing = 0;
+        mDirty = true;
+    }
+
+    /**
+     * Sets the area covered by the cells of the broadphase, in pixels. The rectangles and the
+     * particles outside of it are kept in the cells of the border.
+     */
+    public void setBounds(int left, int top, int right, int bottom) {
+        mGridLeft = left;
+        mGridTop = top;
+        mColumns = Math.max(1, (int) Math.ceil((right - left) / mCellSize));
+        mRows = Math.max(1, (int) Math.ceil((bottom - top) / mCellSize));
+        mDirty = true;
+    }
+
+    /**
+     * Collides the active particles of the buffer with the rectangles. The ones that hit a
+     * rectangle that kills them are removed, the rest bounce, which needs the buffer to integrate
+     * the motion.
+     */
+    public void collide(ParticleBuffer buffer, AtlasRegion[] regions) {
+        if (mCount == 0) {
+            return;
+        }
+        if (mDirty) {
+            build();
+        }
+        if (mBouncing > 0 && !buffer.isIntegrating()) {
+            throw new IllegalStateException("Bouncing needs integrated motion");
+        }
+        int i = 0;
+        while (i < buffer.mCount) {
+            AtlasRegion region = regions[buffer.mImage[i]];
+            float scale = Math.abs(buffer.mScale[i]);
+            float halfWidth = region.mWidth / 2 * scale;
+            float halfHeight = region.mHeight / 2 * scale;
+            float centerX = buffer.mCurrentX[i] + region.mWidth / 2;
+            float centerY = buffer.mCurrentY[i] + region.mHeight / 2;
+            if (collide(buffer, i, centerX, centerY, halfWidth, halfHeight)) {
+                // The last particle has been moved here, it needs to be checked too
+                buffer.remove(i);
+                continue;
+            }
+            i++;
+        }
+    }
+
+    /**
+     * @return whether the particle has to be removed
+     */
+    private boolean collide(ParticleBuffer buffer, int slot, float centerX, float centerY,
+                            float halfWidth, float halfHeight) {
+        int firstColumn = column(centerX - halfWidth);
+        int lastColumn = column(centerX + halfWidth);
+        int firstRow = row(centerY - halfHeight);
+        int lastRow = row(centerY + halfHeight);
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                int cell = row * mColumns + column;
+                for (int k = mCellStart[cell]; k < mCellStart[cell + 1]; k++) {
+                    int collider = mCellItems[k];
+                    // Overlap of the image with the rectangle on each side
+                    float left = centerX + halfWidth - mLeft[collider];
+                    float right = mRight[collider] - (centerX - halfWidth);
+                    float top = centerY + halfHeight - mTop[collider];
+                    float bottom = mBottom[collider] - (centerY - halfHeight);
+                    if (left <= 0 || right <= 0 || top <= 0 || bottom <= 0) {
+                        continue;
+                    }
+                    if (mKill[collider]) {
+                        return true;
+                    }
+                    // Pushed out through the side with the smallest overlap. The previous position
+                    // moves with it, or the interpolated drawing would go through the rectangle
+                    float dx = left < right ? -left : right;
+                    float dy = top < bottom ? -top : bottom;
+                    if (Math.abs(dx) < Math.abs(dy)) {
+                        buffer.mCurrentX[slot] += dx;
+                        buffer.mPreviousX[slot] += dx;
+                        centerX += dx;
+                        bounce(buffer.mVelocityX, buffer.mVelocityY, slot, dx);
+                    } else {
+                        buffer.mCurrentY[slot] += dy;
+                        buffer.mPreviousY[slot] += dy;
+                        centerY += dy;
+                        bounce(buffer.mVelocityY, buffer.mVelocityX, slot, dy);
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reverses the normal velocity if it goes into the surface and applies the friction to the
+     * tangential one.
+     *
+     * @param push the displacement that took the particle out, it points away from the surface
+     */
+    private void bounce(float[] normal, float[] tangential, int slot, float push) {
+        float velocity = normal[slot];
+        if (velocity * push < 0) {
+            float bounced = -velocity * mRestitution;
+            normal[slot] = Math.abs(bounced) < RESTING_SPEED ? 0f : bounced;
+        }
+        tangential[slot] *= 1f - mFriction;
+    }
+
+    /**
+     * Sorts the rectangles into the cells they overlap, with a counting pass and a filling pass.
+     */
+    private void build() {
+        int cells = mColumns * mRows;
+        if (mCellStart.length < cells + 1) {
+            mCellStart = new int[cells + 1];
+        }
+        Arrays.fill(mCellStart, 0, cells + 1, 0);
+        for (int i = 0; i < mCount; i++) {
+            if (!collides(i)) {
+                continue;
+            }
+            for (int row = row(mTop[i]); row <= row(mBottom[i]); row++) {
+                for (int column = column(mLeft[i]); column <= column(mRight[i]); column++) {
+                    mCellStart[row * mColumns + column]++;
+                }
+            }
+        }
+        // Each cell holds where its rectangles end, the last one the total
+        for (int cell = 1; cell <= cells; cell++) {
+            mCellStart[cell] += mCellStart[cell - 1];
+        }
+        if (mCellItems.length < mCellStart[cells]) {
+            mCellItems = new int[mCellStart[cells]];
+        }
+        // Filling each cell from its end leaves it holding where its rectangles start
+        for (int i = mCount - 1; i >= 0; i--) {
+            if (!collides(i)) {
+                continue;
+            }
+            for (int row = row(mTop[i]); row <= row(mBottom[i]); row++) {
+                for (int column = column(mLeft[i]); column <= column(mRight[i]); column++) {
+                    mCellItems[--mCellStart[row * mColumns + column]] = i;
+                }
+            }
+        }
+        mDirty = false;
+    }
+
+    private boolean collides(int index) {
+        return mEnabled[index] && mRight[index] > mLeft[index] && mBottom[index] > mTop[index];
+    }
+
+    private int column(float x) {
+        int column = (int) Math.floor((x - mGridLeft) / mCellSize);
+        return Math.min(mColumns - 1, Math.max(0, column));
+    }
+
+    private int row(float y) {
+        int row = (int) Math.floor((y - mGridTop) / mCellSize);
+        return Math.min(mRows - 1, Math.max(0, row));
+    }
+}
@@ -0,0 +1,250 @@
+package com.plattysoft.leonids;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Uniform grid over the active particles, to find the ones near a point or inside a rectangle
+ * without checking all of them. The particles are indexed by the position of their center, the ones
+ * outside of the bounds of the grid are kept in the cells of the border.
+ * <p>
+ * Each cell is a linked list of slots. After an update only the slots whose particle is now in a
+ * different cell are moved, so the cost of keeping it up to date is one check per particle. The
+ * slots are the same as the ones of the {@link ParticleBuffer} or the active particles, and of the
+ * published snapshot.
+ */
+public class ParticleGrid {
+
+    private static final int NONE = -1;
+
+    private final float mCellSize;
+    private final float[] mX;
+    private final float[] mY;
+    // Cell of each slot, NONE when it is not linked
+    private final int[] mCell;
+    private final int[] mNext;
+    private final int[] mPrevious;
+    // Until the bounds are set it is a single cell
+    private int[] mHeads = new int[]{NONE};
+    private int mLinked;
+    private float mLeft;
+    private float mTop;
+    private int mColumns = 1;
+    private int mRows = 1;
+
+    /**
+     * @param capacity the maximum number of particles
+     * @param cellSize the size of the cells in pixels, around the radius of the usual queries
+     */
+    public ParticleGrid(int capacity, float cellSize) {
+        if (cellSize <= 0) {
+            throw new IllegalArgumentException("The size of the cells must be positive");
+        }
+        mCellSize = cellSize;
+        mX = new float[capacity];
+        mY = new float[capacity];
+        mCell = new int[capacity];
+        mNext = new int[capacity];
+        mPrevious = new int[capacity];
+        Arrays.fill(mCell, NONE);
+    }
+
+    public float getCellSize() {
+        return mCellSize;
+    }
+
+    /**
+     * Sets the area covered by the cells, in pixels. The particles are indexed again on the next
+     * update.
+     */
+    public void setBounds(int left, int top, int right, int bottom) {
+        mLeft = left;
+        mTop = top;
+        mColumns = Math.max(1, (int) Math.ceil((right - left) / mCellSize));
+        mRows = Math.max(1, (int) Math.ceil((bottom - top) / mCellSize));
+        if (mHeads.length < mColumns * mRows) {
+            mHeads = new int[mColumns * mRows];
+        }
+        clear();
+    }
+
+    /**
+     * Removes all the particles from the grid.
+     */
+    public void clear() {
+        Arrays.fill(mHeads, NONE);
+        Arrays.fill(mCell, 0, mLinked, NONE);
+        mLinked = 0;
+    }
+
+    /**
+     * Number of slots in the grid, the active particles of the last update.
+     */
+    public int size() {
+        return mLinked;
+    }
+
+    /**
+     * Moves the particles of the buffer that changed of cell since the last update.
+     */
+    public void update(ParticleBuffer buffer, AtlasRegion[] regions) {
+        int count = buffer.mCount;
+        for (int i = 0; i < count; i++) {
+            AtlasRegion region = regions[buffer.mImage[i]];
+            place(i, buffer.mCurrentX[i] + region.mWidth / 2, buffer.mCurrentY[i] + region.mHeight / 2);
+        }
+        unlinkFrom(count);
+    }
+
+    /**
+     * Moves the active particles that changed of cell since the last update.
+     */
+    public void update(List<Particle> particles) {
+        int count = particles.size();
+        for (int i = 0; i < count; i++) {
+            Particle p = particles.get(i);
+            place(i, p.mCurrentX + p.mRegion.mWidth / 2, p.mCurrentY + p.mRegion.mHeight / 2);
+        }
+        unlinkFrom(count);
+    }
+
+    /**
+     * Finds the particles whose center is at the given distance of a point or closer.
+     *
+     * @param result where the slots of the particles are written
+     * @return the number of particles found, at most the length of the result
+     */
+    public int findInRadius(float x, float y, float radius, int[] result) {
+        if (mLinked == 0 || result.length == 0) {
+            return 0;
+        }
+        float radiusSquared = radius * radius;
+        int firstColumn = column(x - radius);
+        int lastColumn = column(x + radius);
+        int firstRow = row(y - radius);
+        int lastRow = row(y + radius);
+        int found = 0;
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                int slot = mHeads[row * mColumns + column];
+                while (slot != NONE) {
+                    float dx = mX[slot] - x;
+                    float dy = mY[slot] - y;
+                    if (dx * dx + dy * dy <= radiusSquared) {
+                        result[found++] = slot;
+                        if (found == result.length) {
+                            return found;
+                        }
+                    }
+                    slot = mNext[slot];
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Finds the particles whose center is inside the given rectangle, edges included.
+     *
+     * @param result where the slots of the particles are written
+     * @return the number of particles found, at most the length of the result
+     */
+    public int findInRect(float left, float top, float right, float bottom, int[] result) {
+        if (mLinked == 0 || result.length == 0) {
+            return 0;
+        }
+        int firstColumn = column(left);
+        int lastColumn = column(right);
+        int firstRow = row(top);
+        int lastRow = row(bottom);
+        int found = 0;
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                int slot = mHeads[row * mColumns + column];
+                while (slot != NONE) {
+                    float x = mX[slot];
+                    float y = mY[slot];
+                    if (x >= left && x <= right && y >= top && y <= bottom) {
+                        result[found++] = slot;
+                        if (found == result.length) {
+                            return found;
+                        }
+                    }
+                    slot = mNext[slot];
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Horizontal position of the center of the particle in the given slot, as of the last update.
+     */
+    public float getX(int slot) {
+        return mX[slot];
+    }
+
+    /**
+     * Vertical position of the center of the particle in the given slot, as of the last update.
+     */
+    public float getY(int slot) {
+        return mY[slot];
+    }
+
+    private void place(int slot, float x, float y) {
+        mX[slot] = x;
+        mY[slot] = y;
+        int cell = row(y) * mColumns + column(x);
+        if (mCell[slot] == cell) {
+            return;
+        }
+        if (mCell[slot] != NONE) {
+            unlink(slot);
+        }
+        // Add it at the start of the list of the cell
+        int head = mHeads[cell];
+        mNext[slot] = head;
+        mPrevious[slot] = NONE;
+        if (head != NONE) {
+            mPrevious[head] = slot;
+        }
+        mHeads[cell] = slot;
+        mCell[slot] = cell;
+        if (slot >= mLinked) {
+            mLinked = slot + 1;
+        }
+    }
+
+    private void unlinkFrom(int count) {
+        for (int i = count; i < mLinked; i++) {
+            if (mCell[i] != NONE) {
+                unlink(i);
+            }
+        }
+        mLinked = count;
+    }
+
+    private void unlink(int slot) {
+        int next = mNext[slot];
+        int previous = mPrevious[slot];
+        if (previous != NONE) {
+            mNext[previous] = next;
+        } else {
+            mHeads[mCell[slot]] = next;
+        }
+        if (next != NONE) {
+            mPrevious[next] = previous;
+        }
+        mCell[slot] = NONE;
+    }
+
+    private int column(float x) {
+        int column = (int) Math.floor((x - mLeft) / mCellSize);
+        return Math.min(mColumns - 1, Math.max(0, column));
+    }
+
+    private int row(float y) {
+        int row = (int) Math.floor((y - mTop) / mCellSize);
+        return Math.min(mRows - 1, Math.max(0, row));
+    }
+}
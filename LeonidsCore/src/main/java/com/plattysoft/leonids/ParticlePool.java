@@ -0,0 +1,78 @@
+package com.plattysoft.leonids;
+
+import java.util.Random;
+
+/**
+ * Pool of inactive particles backed by a ring buffer. Both acquiring and releasing a particle are
+ * constant time, and particles are reused in the same order they were released.
+ */
+class ParticlePool {
+
+    private final Particle[] mParticles;
+    private int mHead;
+    private int mSize;
+
+    public ParticlePool(int capacity) {
+        mParticles = new Particle[capacity];
+    }
+
+    public int getCapacity() {
+        return mParticles.length;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    /**
+     * Takes the particle that has been in the pool for the longest time.
+     */
+    public Particle acquire() {
+        if (mSize == 0) {
+            throw new IllegalStateException("The particle pool is empty");
+        }
+        Particle p = mParticles[mHead];
+        mParticles[mHead] = null;
+        mHead = (mHead + 1) % mParticles.length;
+        mSize--;
+        return p;
+    }
+
+    public void release(Particle p) {
+        if (mSize == mParticles.length) {
+            throw new IllegalStateException("The particle pool is full");
+        }
+        mParticles[(mHead + mSize) % mParticles.length] = p;
+        mSize++;
+    }
+
+    /**
+     * Returns the particle at the given position counting from the next one to be acquired.
+     */
+    public Particle get(int index) {
+        return mParticles[(mHead + index) % mParticles.length];
+    }
+
+    public void shuffle(Random random) {
+        for (int i = mSize - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int a = (mHead + i) % mParticles.length;
+            int b = (mHead + j) % mParticles.length;
+            Particle tmp = mParticles[a];
+            mParticles[a] = mParticles[b];
+            mParticles[b] = tmp;
+        }
+    }
+
+    public void clear() {
+        for (int i = 0; i < mParticles.length; i++) {
+            mParticles[i] = null;
+        }
+        mHead = 0;
+        mSize = 0;
+    }
+}
@@ -0,0 +1,122 @@
+package com.plattysoft.leonids;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fast random number generator for the simulation, based on xoroshiro128+. Unlike
+ * java.util.Random it does not use atomic operations, so an instance must only be used by one
+ * thread at a time. Use {@link #split()} to get independent generators for other threads.
+ * <p>
+ * It extends Random so it can be passed to the initializers, all the methods use the fast generator.
+ */
+public class ParticleRandom extends Random {
+
+    private static final long serialVersionUID = 1L;
+
+    // Increment of the SplitMix64 generator, used to expand the seed into the state
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+    private static final AtomicLong sSeedUniquifier = new AtomicLong(System.nanoTime());
+
+    // Assigned by setSeed, which is called from the constructor of Random, so no initializers here
+    private long mState0;
+    private long mState1;
+    // Second value of the last pair of gaussians, Random keeps its own that setSeed can not reset
+    private boolean mHasNextGaussian;
+    private double mNextGaussian;
+
+    public ParticleRandom() {
+        this(sSeedUniquifier.addAndGet(GOLDEN_GAMMA) ^ System.nanoTime());
+    }
+
+    public ParticleRandom(long seed) {
+        super(seed);
+    }
+
+    /**
+     * Resets the generator, the same seed always produces the same sequence.
+     */
+    @Override
+    public void setSeed(long seed) {
+        mState0 = mix(seed + GOLDEN_GAMMA);
+        mState1 = mix(seed + 2 * GOLDEN_GAMMA);
+        if (mState0 == 0 && mState1 == 0) {
+            // The state can not be all zeros
+            mState1 = GOLDEN_GAMMA;
+        }
+        mHasNextGaussian = false;
+    }
+
+    /**
+     * Returns a new generator seeded from this one. Its numbers are independent of the ones of this
+     * generator, so it can be used from another thread, and splitting in the same order always
+     * gives the same generators.
+     */
+    public ParticleRandom split() {
+        return new ParticleRandom(nextLong());
+    }
+
+    @Override
+    protected int next(int bits) {
+        // The highest bits are the best ones of xoroshiro128+
+        return (int) (nextLong() >>> (64 - bits));
+    }
+
+    @Override
+    public long nextLong() {
+        long s0 = mState0;
+        long s1 = mState1;
+        long result = s0 + s1;
+        s1 ^= s0;
+        mState0 = Long.rotateLeft(s0, 24) ^ s1 ^ (s1 << 16);
+        mState1 = Long.rotateLeft(s1, 37);
+        return result;
+    }
+
+    @Override
+    public float nextFloat() {
+        return (nextLong() >>> 40) * 0x1.0p-24f;
+    }
+
+    @Override
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    @Override
+    public boolean nextBoolean() {
+        return nextLong() < 0;
+    }
+
+    /**
+     * Same polar method as Random, with the pending value kept here so setSeed discards it.
+     */
+    @Override
+    public double nextGaussian() {
+        if (mHasNextGaussian) {
+            mHasNextGaussian = false;
+            return mNextGaussian;
+        }
+        double v1;
+        double v2;
+        double s;
+        do {
+            v1 = 2 * nextDouble() - 1;
+            v2 = 2 * nextDouble() - 1;
+            s = v1 * v1 + v2 * v2;
+        } while (s >= 1 || s == 0);
+        double multiplier = StrictMath.sqrt(-2 * StrictMath.log(s) / s);
+        mNextGaussian = v2 * multiplier;
+        mHasNextGaussian = true;
+        return v1 * multiplier;
+    }
+
+    /**
+     * Finalizer of SplitMix64, it spreads similar seeds over the whole state.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,1007 @@
+package com.plattysoft.leonids;
+
+import com.plattysoft.leonids.initializers.BatchInitializer;
+import com.plattysoft.leonids.initializers.ParticleInitializer;
+import com.plattysoft.leonids.modifiers.ParticleModifier;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Emission and update of the particles of a ParticleSystem. It does not depend on Android, so it
+ * can also be run on the JVM, for example for stress tests or to precompute effects.
+ * <p>
+ * After each update the state of the particles is published as a snapshot for drawing.
+ */
+public class ParticleSimulation {
+
+    // Bulk spawns are split in chunks of this size, each one with its own random numbers
+    public static final int SPAWN_CHUNK_SIZE = 1024;
+    // Below this number of active particles the update runs on the calling thread
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 4096;
+    // Parallel updates do not split the particles in chunks smaller than this
+    private static final int MIN_UPDATE_CHUNK_SIZE = 1024;
+
+    private final int mMaxParticles;
+    private final long mTimeToLive;
+    private Random mRandom = new ParticleRandom();
+    private final ArrayList<Particle> mActiveParticles;
+    private final List<ParticleModifier> mModifiers = new ArrayList<>();
+    private final List<ParticleInitializer> mInitializers = new ArrayList<>();
+    private ParticleStorage mStorage;
+    private ParticlePool mParticles;
+    private ParticleBuffer mParticleBuffer;
+    private SnapshotBuffer mSnapshots;
+    private AtlasRegion[] mParticleBufferRegions;
+    private ParticleSnapshot mPublished;
+    private float mParticlesPerMillisecond;
+    private int mActivatedParticles;
+    private long mEmittingTime;
+
+    private int mEmitterXMin;
+    private int mEmitterXMax;
+    private int mEmitterYMin;
+    private int mEmitterYMax;
+
+    private Executor mSpawnExecutor;
+    private Executor mUpdateExecutor;
+    private int mParallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+    private StepTask[] mStepTasks;
+    private final ChunkJoin mJoin = new ChunkJoin();
+    // Spreading of the one shots over the steps, 0 to spawn all the particles at once
+    private int mSpawnChunksPerStep;
+    private int mPendingSpawn;
+    private ParticleRandom mPendingStreams;
+    // Rejection of the update executor in the current step
+    private RuntimeException mRejection;
+
+    // Totals since the simulation was created, for the metrics
+    private long mSpawnCount;
+    private long mDeathCount;
+    private boolean mRetireOffscreen;
+    private int mViewportLeft;
+    private int mViewportTop;
+    private int mViewportRight;
+    private int mViewportBottom;
+
+    // Fixed timestep, 0 when every update is a step
+    private double mStepMillis;
+    private int mMaxStepsPerUpdate;
+    private double mSteppedTime;
+    private boolean mStepping;
+
+    private ParticleGrid mGrid;
+    private boolean mIntegratedMotion;
+    private ParticleColliders mColliders;
+
+    /**
+     * Creates a simulation with an empty pool, the particles are added with addParticle.
+     *
+     * @param maxParticles The maximum number of particles
+     * @param timeToLive   The time to live for the particles
+     */
+    public ParticleSimulation(int maxParticles, long timeToLive) {
+        this(maxParticles, timeToLive, new ParticleStorage(new ParticlePool(maxParticles), null, maxParticles));
+    }
+
+    ParticleSimulation(int maxParticles, long timeToLive, ParticleStorage storage) {
+        mMaxParticles = maxParticles;
+        mTimeToLive = timeToLive;
+        // Sized once, so activating particles never grows it
+        mActiveParticles = new ArrayList<>(maxParticles);
+        setStorage(storage);
+    }
+
+    public int getMaxParticles() {
+        return mMaxParticles;
+    }
+
+    public long getTimeToLive() {
+        return mTimeToLive;
+    }
+
+    /**
+     * Seeds the random numbers of the simulation, the same seed and configuration always produce
+     * the same particles.
+     */
+    public ParticleSimulation setSeed(long seed) {
+        mRandom.setSeed(seed);
+        return this;
+    }
+
+    /**
+     * Replaces the random number generator used to initialize the particles, a
+     * {@link ParticleRandom} by default. It is only used from the thread that updates the
+     * simulation.
+     */
+    public ParticleSimulation setRandom(Random random) {
+        mRandom = random;
+        return this;
+    }
+
+    /**
+     * Adds a particle to the pool of inactive particles.
+     */
+    public ParticleSimulation addParticle(Particle particle) {
+        mParticles.release(particle);
+        return this;
+    }
+
+    /**
+     * Randomizes the order in which the particles of the pool are used.
+     */
+    public ParticleSimulation shuffleParticles() {
+        mParticles.shuffle(mRandom);
+        return this;
+    }
+
+    public ParticleSimulation addInitializer(ParticleInitializer initializer) {
+        mInitializers.add(initializer);
+        return this;
+    }
+
+    public ParticleSimulation addModifier(ParticleModifier modifier) {
+        mModifiers.add(modifier);
+        return this;
+    }
+
+    List<ParticleInitializer> getInitializers() {
+        return mInitializers;
+    }
+
+    List<ParticleModifier> getModifiers() {
+        return mModifiers;
+    }
+
+    /**
+     * Switches to packed storage, the particles of the pool are replaced by a ParticleBuffer that
+     * uses the same images. Animated particles are not supported.
+     */
+    public ParticleSimulation usePackedStorage() {
+        if (mParticleBuffer != null) {
+            return this;
+        }
+        ArrayList<AtlasRegion> regions = new ArrayList<>();
+        for (int i = 0; i < mParticles.size(); i++) {
+            Particle p = mParticles.get(i);
+            if (p instanceof AnimatedParticle) {
+                throw new IllegalStateException("Packed storage does not support animated particles");
+            }
+            if (!regions.contains(p.mRegion)) {
+                regions.add(p.mRegion);
+            }
+        }
+        mParticleBufferRegions = regions.toArray(new AtlasRegion[regions.size()]);
+        mParticleBuffer = new ParticleBuffer(mMaxParticles);
+        mStorage.mBuffer = mParticleBuffer;
+        // The particle objects are not needed anymore
+        mParticles.clear();
+        return this;
+    }
+
+    /**
+     * Moves the particles by integrating their velocity instead of with the closed form of the
+     * time, so the {@link com.plattysoft.leonids.modifiers.ForceField} modifiers can accelerate
+     * them. It needs packed storage. The particles are not retired when they leave the viewport,
+     * since the forces can bring them back.
+     */
+    public ParticleSimulation setIntegratedMotion(boolean integrated) {
+        if (integrated && !isPacked()) {
+            throw new IllegalStateException("Integrated motion needs packed storage");
+        }
+        mIntegratedMotion = integrated;
+        return this;
+    }
+
+    public boolean isIntegratedMotion() {
+        return mIntegratedMotion;
+    }
+
+    public boolean isPacked() {
+        return mParticleBufferRegions != null;
+    }
+
+    AtlasRegion[] getPackedRegions() {
+        return mParticleBufferRegions;
+    }
+
+    void setPackedRegions(AtlasRegion[] regions) {
+        mParticleBufferRegions = regions;
+    }
+
+    /**
+     * Copies of the particles in the pool, used to create presets.
+     */
+    Particle[] copyParticles() {
+        Particle[] particles = new Particle[mParticles.size()];
+        for (int i = 0; i < particles.length; i++) {
+            particles[i] = mParticles.get(i).copy();
+        }
+        return particles;
+    }
+
+    ParticleStorage getStorage() {
+        return mStorage;
+    }
+
+    void setStorage(ParticleStorage storage) {
+        mStorage = storage;
+        mParticles = storage != null ? storage.mPool : null;
+        mParticleBuffer = storage != null ? storage.mBuffer : null;
+        mSnapshots = storage != null ? storage.mSnapshots : null;
+    }
+
+    SnapshotBuffer getSnapshots() {
+        return mSnapshots;
+    }
+
+    /**
+     * The snapshot published by the last update. The writer does not modify it until the next one
+     * is published, so it can be read from the updating thread until then.
+     */
+    ParticleSnapshot getPublished() {
+        return mPublished;
+    }
+
+    /**
+     * Sets the area where the particles are emitted, in pixels.
+     */
+    public void setEmitterRange(int xMin, int xMax, int yMin, int yMax) {
+        mEmitterXMin = xMin;
+        mEmitterXMax = xMax;
+        mEmitterYMin = yMin;
+        mEmitterYMax = yMax;
+    }
+
+    /**
+     * Sets the visible area, in pixels. It is used to retire the particles that leave it.
+     */
+    public void setViewport(int left, int top, int right, int bottom) {
+        mViewportLeft = left;
+        mViewportTop = top;
+        mViewportRight = right;
+        mViewportBottom = bottom;
+        if (mGrid != null) {
+            mGrid.setBounds(left, top, right, bottom);
+            updateGrid();
+        }
+        if (mColliders != null) {
+            mColliders.setBounds(left, top, right, bottom);
+        }
+    }
+
+    /**
+     * Keeps the active particles in a {@link ParticleGrid} over the viewport, updated after every
+     * step, so the ones near a point can be found without checking all of them.
+     *
+     * @param cellSize the size of the cells in pixels, 0 to remove the grid
+     */
+    public void setGridCellSize(float cellSize) {
+        if (cellSize <= 0) {
+            mGrid = null;
+            return;
+        }
+        mGrid = new ParticleGrid(mMaxParticles, cellSize);
+        mGrid.setBounds(mViewportLeft, mViewportTop, mViewportRight, mViewportBottom);
+        updateGrid();
+    }
+
+    /**
+     * The grid with the particles of the last step, or null if it is not enabled.
+     */
+    public ParticleGrid getGrid() {
+        return mGrid;
+    }
+
+    /**
+     * Collides the particles with the rectangles of the set after every step. It needs packed
+     * storage, and integrated motion if any of the rectangles makes them bounce.
+     *
+     * @param colliders the rectangles, null to remove them
+     */
+    public ParticleSimulation setColliders(ParticleColliders colliders) {
+        if (colliders != null && !isPacked()) {
+            throw new IllegalStateException("Collisions need packed storage");
+        }
+        mColliders = colliders;
+        if (colliders != null) {
+            colliders.setBounds(mViewportLeft, mViewportTop, mViewportRight, mViewportBottom);
+        }
+        return this;
+    }
+
+    public ParticleColliders getColliders() {
+        return mColliders;
+    }
+
+    /**
+     * Returns to the pool the particles that are outside of the viewport and can not come back:
+     * they are moving away from it and the acceleration can not turn them around. It assumes the
+     * modifiers do not move the particles nor make them grow.
+     */
+    public void setRetireOffscreenParticles(boolean retire) {
+        mRetireOffscreen = retire;
+    }
+
+    /**
+     * Big one shots with packed storage are initialized in chunks on this executor, and the call
+     * waits until all of them are done. The result is the same as without it, since the random
+     * numbers of each chunk do not depend on the others. It is only used when all the initializers
+     * implement {@link BatchInitializer}. The chunks the executor rejects are initialized on the
+     * calling thread, and the rejection is thrown once the one shot is done.
+     *
+     * @param executor the executor, or null to initialize the particles on the calling thread
+     */
+    public void setSpawnExecutor(Executor executor) {
+        mSpawnExecutor = executor;
+    }
+
+    /**
+     * Updates of the packed storage with many particles are split in chunks that are stepped on
+     * this executor, one per available processor, and the update waits until all of them are done
+     * before publishing. The modifiers must support being applied to different particles from
+     * different threads at the same time, which is the case of all the built-in ones.
+     * <p>
+     * Waiting for the chunks does not allocate, but the executor may: the queue of a
+     * ThreadPoolExecutor created with a LinkedBlockingQueue allocates a node for every task, one
+     * created with an ArrayBlockingQueue does not. The chunks the executor rejects are stepped on
+     * the calling thread, and the rejection is thrown once the step is done.
+     *
+     * @param executor the executor, or null to update the particles on the calling thread
+     */
+    public void setUpdateExecutor(Executor executor) {
+        mUpdateExecutor = executor;
+        if (executor != null && mStepTasks == null) {
+            int chunks = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(),
+                    mMaxParticles / MIN_UPDATE_CHUNK_SIZE));
+            mStepTasks = new StepTask[chunks];
+            for (int i = 0; i < chunks; i++) {
+                mStepTasks[i] = new StepTask();
+            }
+        }
+    }
+
+    /**
+     * Sets the minimum number of active particles for the update to run in parallel, the cost of
+     * handing the chunks to other threads is not worth it for fewer particles.
+     */
+    public void setParallelThreshold(int minParticles) {
+        mParallelThreshold = minParticles;
+    }
+
+    /**
+     * Steps the simulation at a fixed rate with {@link #advance(long)}, independently of how often
+     * it is called. The published snapshot is interpolated between the last two steps, so it can be
+     * drawn smoothly at a higher rate than the one of the simulation.
+     *
+     * @param stepsPerSecond    the rate of the simulation, 0 to step on every call
+     * @param maxStepsPerUpdate the maximum number of steps to catch up on a single call, the rest
+     *                          of the time is skipped
+     */
+    public void setFixedTimestep(float stepsPerSecond, int maxStepsPerUpdate) {
+        mStepMillis = stepsPerSecond > 0 ? 1000d / stepsPerSecond : 0;
+        mMaxStepsPerUpdate = Math.max(1, maxStepsPerUpdate);
+        mStepping = false;
+    }
+
+    /**
+     * Starts emitting particles at a constant rate.
+     *
+     * @param particlesPerSecond Number of particles per second that will be emited (evenly distributed)
+     * @param emittingTime       time the emitter will be emitting particles, -1 for infinite
+     */
+    public void startEmitting(int particlesPerSecond, long emittingTime) {
+        mActivatedParticles = 0;
+        mParticlesPerMillisecond = particlesPerSecond / 1000f;
+        mEmittingTime = emittingTime;
+    }
+
+    /**
+     * Stops emitting new particles, the existing ones are updated until their time to live expires.
+     *
+     * @param milliseconds the current time of the simulation
+     */
+    public void stopEmitting(long milliseconds) {
+        mEmittingTime = milliseconds;
+    }
+
+    /**
+     * With packed storage, spreads the initialization of big one shots over the steps: the first
+     * chunks are activated by the one shot and the rest by the next steps, at most this number per
+     * step. The particles are the same as when all of them are activated at once, since each chunk
+     * has its own random numbers, but the ones of the later chunks start at the time of the step
+     * that activates them, from the position of the emitter at that time.
+     *
+     * @param chunks chunks of {@link #SPAWN_CHUNK_SIZE} particles activated per step, 0 to activate
+     *               all of them at once
+     */
+    public void setSpawnChunksPerStep(int chunks) {
+        mSpawnChunksPerStep = Math.max(0, chunks);
+    }
+
+    /**
+     * Activates the given number of particles at once, or over several steps, see
+     * {@link #setSpawnChunksPerStep(int)}.
+     */
+    public void oneShot(int numParticles) {
+        mActivatedParticles = 0;
+        mEmittingTime = mTimeToLive;
+        if (mParticleBuffer != null) {
+            prepareIntegration();
+            // The same generators as a single spawn, so spreading it does not change the particles
+            mPendingStreams = new ParticleRandom(mRandom.nextLong());
+            mPendingSpawn = Math.min(numParticles, mMaxParticles);
+            spawnPending(0);
+            return;
+        }
+        // We create particles based in the parameters
+        for (int i = 0; i < numParticles && i < mMaxParticles; i++) {
+            activateParticle(0);
+        }
+    }
+
+    /**
+     * Activates the pending particles of the one shot, all of them or the chunks of a step.
+     */
+    private void spawnPending(long milliseconds) {
+        int count = mPendingSpawn;
+        if (mSpawnChunksPerStep > 0) {
+            count = Math.min(count, mSpawnChunksPerStep * SPAWN_CHUNK_SIZE);
+        }
+        int spawned = spawn(count, milliseconds, mPendingStreams);
+        // Without room for all of them, the rest of the one shot is dropped
+        mPendingSpawn = spawned < count ? 0 : mPendingSpawn - count;
+        if (mPendingSpawn == 0) {
+            mPendingStreams = null;
+        }
+    }
+
+    /**
+     * Activates many particles of the packed storage at once, each initializer runs over all of
+     * them in a single pass.
+     *
+     * @param streams the generator split for each chunk, in order, so the result does not depend on
+     *                the threads nor on how the particles are spread over the steps
+     * @return the number of particles activated
+     */
+    private int spawn(int numParticles, long delay, ParticleRandom streams) {
+        int from = mParticleBuffer.mCount;
+        int count = mParticleBuffer.addBulk(numParticles, mTimeToLive, delay);
+        int chunks = (count + SPAWN_CHUNK_SIZE - 1) / SPAWN_CHUNK_SIZE;
+        SpawnTask[] tasks = new SpawnTask[chunks];
+        for (int i = 0; i < chunks; i++) {
+            int chunkFrom = from + i * SPAWN_CHUNK_SIZE;
+            int chunkTo = Math.min(chunkFrom + SPAWN_CHUNK_SIZE, from + count);
+            tasks[i] = new SpawnTask(chunkFrom, chunkTo, streams.split());
+        }
+        RuntimeException rejection = null;
+        if (mSpawnExecutor != null && chunks > 1 && hasOnlyBatchInitializers()) {
+            rejection = runOnExecutor(mSpawnExecutor, mJoin, tasks, chunks);
+        } else {
+            for (SpawnTask task : tasks) {
+                task.run();
+            }
+        }
+        checkErrors(tasks, chunks, "Could not initialize the particles");
+        mActivatedParticles += count;
+        mSpawnCount += count;
+        if (rejection != null) {
+            throw rejection;
+        }
+        return count;
+    }
+
+    private boolean hasOnlyBatchInitializers() {
+        for (int i = 0; i < mInitializers.size(); i++) {
+            if (!(mInitializers.get(i) instanceof BatchInitializer)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Runs the first task on the calling thread and the rest on the executor, and waits until all
+     * of them are done. If the executor rejects a task, it and the ones after it run on the calling
+     * thread.
+     *
+     * @return the rejection of the executor, for the caller to throw once its state is consistent,
+     * or null
+     */
+    private static RuntimeException runOnExecutor(Executor executor, ChunkJoin join, ChunkTask[] tasks, int count) {
+        join.start(count - 1);
+        RuntimeException rejection = null;
+        int submitted = 1;
+        try {
+            for (; submitted < count; submitted++) {
+                tasks[submitted].mDone = join;
+                executor.execute(tasks[submitted]);
+            }
+        } catch (RuntimeException e) {
+            rejection = e;
+        }
+        // Running them counts them down, so the join does not wait for tasks that were never submitted
+        for (int i = submitted; i < count; i++) {
+            tasks[i].mDone = join;
+            tasks[i].run();
+        }
+        tasks[0].mDone = null;
+        tasks[0].run();
+        join.await();
+        return rejection;
+    }
+
+    private static void checkErrors(ChunkTask[] tasks, int count, String message) {
+        Throwable error = null;
+        for (int i = 0; i < count; i++) {
+            if (error == null) {
+                error = tasks[i].mError;
+            }
+            tasks[i].mError = null;
+        }
+        if (error != null) {
+            throw new RuntimeException(message, error);
+        }
+    }
+
+    private void initializeChunk(int from, int to, Random random) {
+        Particle template = null;
+        for (int i = 0; i < mInitializers.size(); i++) {
+            ParticleInitializer initializer = mInitializers.get(i);
+            if (initializer instanceof BatchInitializer) {
+                ((BatchInitializer) initializer).initParticles(mParticleBuffer, from, to, random);
+            } else {
+                if (template == null) {
+                    // Only with initializers without batch support, which always run on this thread
+                    template = new Particle();
+                }
+                mParticleBuffer.initOneByOne(initializer, from, to, random, template);
+            }
+        }
+        for (int i = from; i < to; i++) {
+            int image = mParticleBufferRegions.length == 1 ? 0 : random.nextInt(mParticleBufferRegions.length);
+            AtlasRegion region = mParticleBufferRegions[image];
+            int particleX = getFromRange(random, mEmitterXMin, mEmitterXMax);
+            int particleY = getFromRange(random, mEmitterYMin, mEmitterYMax);
+            mParticleBuffer.place(i, image, region.mWidth / 2, region.mHeight / 2, particleX, particleY);
+        }
+    }
+
+    /**
+     * Waits for the chunks that run on an executor. Unlike a CountDownLatch it can be reused, so
+     * the parallel updates do not allocate.
+     */
+    private static class ChunkJoin {
+
+        private final AtomicInteger mPending = new AtomicInteger();
+        private volatile Thread mWaiter;
+
+        void start(int count) {
+            mWaiter = Thread.currentThread();
+            mPending.set(count);
+        }
+
+        void countDown() {
+            if (mPending.decrementAndGet() == 0) {
+                LockSupport.unpark(mWaiter);
+            }
+        }
+
+        void await() {
+            boolean interrupted = false;
+            while (mPending.get() > 0) {
+                LockSupport.park(this);
+                if (Thread.interrupted()) {
+                    // The tasks write to the buffer, they must be finished before it is used
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Work on a range of slots of the packed storage, it keeps the error to be thrown on the
+     * thread that waits for it.
+     */
+    private abstract static class ChunkTask implements Runnable {
+
+        ChunkJoin mDone;
+        Throwable mError;
+
+        @Override
+        public void run() {
+            try {
+                runChunk();
+            } catch (Throwable t) {
+                mError = t;
+            } finally {
+                if (mDone != null) {
+                    mDone.countDown();
+                }
+            }
+        }
+
+        abstract void runChunk();
+    }
+
+    private class SpawnTask extends ChunkTask {
+
+        private final int mFrom;
+        private final int mTo;
+        private final Random mStream;
+
+        SpawnTask(int from, int to, Random stream) {
+            mFrom = from;
+            mTo = to;
+            mStream = stream;
+        }
+
+        @Override
+        void runChunk() {
+            initializeChunk(mFrom, mTo, mStream);
+        }
+    }
+
+    /**
+     * Steps a range of the packed storage, reused on every update.
+     */
+    private class StepTask extends ChunkTask {
+
+        // Each thread needs its own particle for the modifiers without batch support
+        private final Particle mTemplate = new Particle();
+        private long mMilliseconds;
+        private int mFrom;
+        private int mTo;
+
+        @Override
+        void runChunk() {
+            mParticleBuffer.step(mMilliseconds, mModifiers, mFrom, mTo, mTemplate);
+        }
+    }
+
+    /**
+     * Emits the particles that are due, updates the active ones and publishes the snapshot.
+     *
+     * @param milliseconds time since the start of the simulation
+     */
+    public void update(long milliseconds) {
+        step(milliseconds, false);
+        publish(1f);
+    }
+
+    /**
+     * Runs the steps of the fixed timestep that are due at the given time and publishes the state
+     * in between the last two of them. Without a fixed timestep it is the same as
+     * {@link #update(long)}.
+     *
+     * @param milliseconds time since the start of the simulation
+     */
+    public void advance(long milliseconds) {
+        if (mStepMillis <= 0) {
+            update(milliseconds);
+            return;
+        }
+        if (!mStepping || milliseconds < mSteppedTime) {
+            // First step, or the time went back: start again from here
+            mStepping = true;
+            mSteppedTime = milliseconds;
+            step(milliseconds, false);
+            publish(1f);
+            return;
+        }
+        int steps = 0;
+        while (mSteppedTime + mStepMillis <= milliseconds && steps < mMaxStepsPerUpdate) {
+            mSteppedTime += mStepMillis;
+            step((long) mSteppedTime, true);
+            steps++;
+        }
+        if (mSteppedTime + mStepMillis <= milliseconds) {
+            // Too far behind, the steps that did not fit are skipped and the last one is drawn as is
+            mSteppedTime += Math.floor((milliseconds - mSteppedTime) / mStepMillis) * mStepMillis;
+            publish(1f);
+            return;
+        }
+        publish((float) ((milliseconds - mSteppedTime) / mStepMillis));
+    }
+
+    /**
+     * Emits the particles that are due and updates the active ones, without publishing.
+     *
+     * @param keepPrevious whether to keep the state before the step to interpolate from it
+     */
+    private void step(long milliseconds, boolean keepPrevious) {
+        if (keepPrevious) {
+            savePrevious();
+        }
+        if (mParticleBuffer != null) {
+            prepareIntegration();
+            if (mPendingSpawn > 0) {
+                spawnPending(milliseconds);
+            }
+        }
+        while (((mEmittingTime > 0 && milliseconds < mEmittingTime) || mEmittingTime == -1) && // This point should emit
+                hasAvailableParticles() && // We have particles in the pool
+                mActivatedParticles < mParticlesPerMillisecond * milliseconds) { // and we are under the number of particles that should be launched
+            // Activate a new particle
+            activateParticle(milliseconds);
+        }
+        int activeBefore = getActiveCount();
+        boolean retire = mRetireOffscreen && !mIntegratedMotion && mViewportRight > mViewportLeft && mViewportBottom > mViewportTop;
+        if (mParticleBuffer != null) {
+            if (mUpdateExecutor != null && mParticleBuffer.mCount >= mParallelThreshold) {
+                updateInParallel(milliseconds);
+            } else {
+                mParticleBuffer.update(milliseconds, mModifiers);
+            }
+            if (retire) {
+                retireOffscreenParticles(milliseconds);
+            }
+            if (mColliders != null) {
+                mColliders.collide(mParticleBuffer, mParticleBufferRegions);
+            }
+        } else {
+            for (int i = 0; i < mActiveParticles.size(); i++) {
+                Particle particle = mActiveParticles.get(i);
+                boolean active = particle.update(milliseconds);
+                if (!active || (retire && isGone(particle, milliseconds))) {
+                    // Move the last one into this position, removing from the end is constant time
+                    int last = mActiveParticles.size() - 1;
+                    mActiveParticles.set(i, mActiveParticles.get(last));
+                    mActiveParticles.remove(last);
+                    i--; // Needed to keep the index at the right position
+                    mParticles.release(particle);
+                }
+            }
+        }
+        mDeathCount += activeBefore - getActiveCount();
+        updateGrid();
+        if (mRejection != null) {
+            // The step was completed on this thread, the executor is reported after it
+            RuntimeException rejection = mRejection;
+            mRejection = null;
+            throw rejection;
+        }
+    }
+
+    private void updateGrid() {
+        if (mGrid == null) {
+            return;
+        }
+        if (mParticleBuffer != null) {
+            mGrid.update(mParticleBuffer, mParticleBufferRegions);
+        } else {
+            mGrid.update(mActiveParticles);
+        }
+    }
+
+    /**
+     * The buffer can come from a preset, so it is set up before it gets particles.
+     */
+    private void prepareIntegration() {
+        if (mIntegratedMotion) {
+            mParticleBuffer.enableIntegration(mParticleBufferRegions);
+        } else if (mParticleBuffer.isIntegrating()) {
+            mParticleBuffer.disableIntegration();
+        }
+    }
+
+    private void savePrevious() {
+        if (mParticleBuffer != null) {
+            mParticleBuffer.savePrevious();
+        } else {
+            for (int i = 0; i < mActiveParticles.size(); i++) {
+                mActiveParticles.get(i).savePrevious();
+            }
+        }
+    }
+
+    /**
+     * Writes the state of the particles to the back snapshot and publishes it.
+     *
+     * @param interpolation position between the previous step and the last one, 1 for the last one
+     */
+    private void publish(float interpolation) {
+        ParticleSnapshot snapshot = mSnapshots.getBack();
+        if (mParticleBuffer != null) {
+            if (interpolation < 1f) {
+                snapshot.set(mParticleBuffer, mParticleBufferRegions, interpolation);
+            } else {
+                snapshot.set(mParticleBuffer, mParticleBufferRegions);
+            }
+        } else if (interpolation < 1f) {
+            snapshot.set(mActiveParticles, interpolation);
+        } else {
+            snapshot.set(mActiveParticles);
+        }
+        // The drawing only sees the new state once it is complete
+        mSnapshots.publish();
+        mPublished = snapshot;
+    }
+
+    /**
+     * Removes the expired particles on this thread, then steps the rest in chunks on the executor.
+     */
+    private void updateInParallel(long milliseconds) {
+        ParticleBuffer buffer = mParticleBuffer;
+        buffer.removeExpired(milliseconds);
+        int count = buffer.mCount;
+        int chunks = Math.max(1, Math.min(mStepTasks.length, count / MIN_UPDATE_CHUNK_SIZE));
+        for (int i = 0; i < chunks; i++) {
+            StepTask task = mStepTasks[i];
+            task.mMilliseconds = milliseconds;
+            task.mFrom = (int) ((long) count * i / chunks);
+            task.mTo = (int) ((long) count * (i + 1) / chunks);
+        }
+        if (chunks > 1) {
+            mRejection = runOnExecutor(mUpdateExecutor, mJoin, mStepTasks, chunks);
+        } else {
+            mStepTasks[0].run();
+        }
+        checkErrors(mStepTasks, chunks, "Could not update the particles");
+    }
+
+    /**
+     * Returns all the active particles to the pool and publishes an empty snapshot.
+     */
+    public void clear() {
+        mDeathCount += getActiveCount();
+        mStepping = false;
+        mPendingSpawn = 0;
+        mPendingStreams = null;
+        if (mParticleBuffer != null) {
+            mParticleBuffer.clear();
+        } else {
+            for (int i = 0; i < mActiveParticles.size(); i++) {
+                mParticles.release(mActiveParticles.get(i));
+            }
+            mActiveParticles.clear();
+        }
+        if (mGrid != null) {
+            mGrid.clear();
+        }
+        ParticleSnapshot snapshot = mSnapshots.getBack();
+        snapshot.clear();
+        mSnapshots.publish();
+        mPublished = snapshot;
+    }
+
+    public int getActiveCount() {
+        return mParticleBuffer != null ? mParticleBuffer.mCount : mActiveParticles.size();
+    }
+
+    /**
+     * Number of particles that can still be activated.
+     */
+    public int getPooledCount() {
+        if (mParticleBuffer != null) {
+            return mParticleBuffer.mCapacity - mParticleBuffer.mCount;
+        }
+        return mParticles != null ? mParticles.size() : 0;
+    }
+
+    /**
+     * Number of particles activated since the simulation was created.
+     */
+    public long getSpawnCount() {
+        return mSpawnCount;
+    }
+
+    /**
+     * Number of particles that expired, were retired or cleared since the simulation was created.
+     */
+    public long getDeathCount() {
+        return mDeathCount;
+    }
+
+    private void retireOffscreenParticles(long milliseconds) {
+        ParticleBuffer b = mParticleBuffer;
+        int i = 0;
+        while (i < b.mCount) {
+            AtlasRegion region = mParticleBufferRegions[b.mImage[i]];
+            float radius = region.mRadius * Math.abs(b.mScale[i]);
+            long time = milliseconds - b.mStartingMilisecond[i];
+            if (isGone(b.mCurrentX[i] + region.mWidth / 2, radius, b.mSpeedX[i], b.mAccelerationX[i], time,
+                    mViewportLeft, mViewportRight) ||
+                    isGone(b.mCurrentY[i] + region.mHeight / 2, radius, b.mSpeedY[i], b.mAccelerationY[i], time,
+                            mViewportTop, mViewportBottom)) {
+                // The last particle is moved here, it needs to be checked too
+                b.remove(i);
+                continue;
+            }
+            i++;
+        }
+    }
+
+    private boolean isGone(Particle p, long milliseconds) {
+        AtlasRegion region = p.mRegion;
+        float radius = region.mRadius * Math.abs(p.mScale);
+        long time = milliseconds - p.mStartingMilisecond;
+        return isGone(p.mCurrentX + region.mWidth / 2, radius, p.mSpeedX, p.mAccelerationX, time,
+                mViewportLeft, mViewportRight) ||
+                isGone(p.mCurrentY + region.mHeight / 2, radius, p.mSpeedY, p.mAccelerationY, time,
+                        mViewportTop, mViewportBottom);
+    }
+
+    /**
+     * Checks one axis: the particle is outside, its velocity points away and the acceleration can
+     * not turn it around, since the position is speed * t + acceleration * t^2.
+     */
+    private static boolean isGone(float center, float radius, float speed, float acceleration, long time,
+                                  int min, int max) {
+        float velocity = speed + 2 * acceleration * time;
+        if (center + radius < min) {
+            return velocity <= 0 && acceleration <= 0;
+        }
+        if (center - radius > max) {
+            return velocity >= 0 && acceleration >= 0;
+        }
+        return false;
+    }
+
+    boolean hasAvailableParticles() {
+        if (mParticleBuffer != null) {
+            return !mParticleBuffer.isFull();
+        }
+        return !mParticles.isEmpty();
+    }
+
+    void activateParticle(long delay) {
+        if (mParticleBuffer != null) {
+            activatePackedParticle(delay);
+            return;
+        }
+        Particle p = mParticles.acquire();
+        p.init();
+        // Initialization goes before configuration, scale is required before can be configured properly
+        for (int i = 0; i < mInitializers.size(); i++) {
+            mInitializers.get(i).initParticle(p, mRandom);
+        }
+        int particleX = getFromRange(mEmitterXMin, mEmitterXMax);
+        int particleY = getFromRange(mEmitterYMin, mEmitterYMax);
+        p.configure(mTimeToLive, particleX, particleY);
+        p.activate(delay, mModifiers);
+        mActiveParticles.add(p);
+        mActivatedParticles++;
+        mSpawnCount++;
+    }
+
+    private void activatePackedParticle(long delay) {
+        if (mParticleBuffer.isFull()) {
+            return;
+        }
+        Particle p = mParticleBuffer.obtainTemplate();
+        for (int i = 0; i < mInitializers.size(); i++) {
+            mInitializers.get(i).initParticle(p, mRandom);
+        }
+        int image = mParticleBufferRegions.length == 1 ? 0 : mRandom.nextInt(mParticleBufferRegions.length);
+        AtlasRegion region = mParticleBufferRegions[image];
+        int particleX = getFromRange(mEmitterXMin, mEmitterXMax);
+        int particleY = getFromRange(mEmitterYMin, mEmitterYMax);
+        mParticleBuffer.add(image, region.mWidth / 2, region.mHeight / 2, mTimeToLive,
+                particleX, particleY, delay);
+        mActivatedParticles++;
+        mSpawnCount++;
+    }
+
+    private int getFromRange(int minValue, int maxValue) {
+        return getFromRange(mRandom, minValue, maxValue);
+    }
+
+    private static int getFromRange(Random random, int minValue, int maxValue) {
+        if (minValue == maxValue) {
+            return minValue;
+        }
+        if (minValue < maxValue) {
+            return random.nextInt(maxValue - minValue) + minValue;
+        } else {
+            return random.nextInt(minValue - maxValue) + maxValue;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.plattysoft.leonids;
+
+import java.util.List;
+
+/**
+ * Copy of the values needed to draw the active particles at a given time, so the drawing does not
+ * need to access the particles while they are being updated.
+ */
+class ParticleSnapshot {
+
+    public int mCount;
+    public final float[] mX;
+    public final float[] mY;
+    public final float[] mRotation;
+    public final float[] mScale;
+    public final int[] mAlpha;
+    public final AtlasRegion[] mRegion;
+    // Bounds of all the particles at any rotation, only valid when there are particles
+    public float mLeft;
+    public float mTop;
+    public float mRight;
+    public float mBottom;
+
+    public ParticleSnapshot(int capacity) {
+        mX = new float[capacity];
+        mY = new float[capacity];
+        mRotation = new float[capacity];
+        mScale = new float[capacity];
+        mAlpha = new int[capacity];
+        mRegion = new AtlasRegion[capacity];
+    }
+
+    public void set(List<Particle> particles) {
+        int count = Math.min(particles.size(), mX.length);
+        for (int i = 0; i < count; i++) {
+            Particle p = particles.get(i);
+            mX[i] = p.mCurrentX;
+            mY[i] = p.mCurrentY;
+            mRotation[i] = p.mRotation;
+            mScale[i] = p.mScale;
+            mAlpha[i] = p.mAlpha;
+            mRegion[i] = p.mRegion;
+        }
+        clearRegions(count);
+        mCount = count;
+        computeBounds();
+    }
+
+    /**
+     * Sets the particles in between their previous and current state, the scale and the alpha are
+     * the current ones.
+     *
+     * @param interpolation 0 for the previous state, 1 for the current one
+     */
+    public void set(List<Particle> particles, float interpolation) {
+        int count = Math.min(particles.size(), mX.length);
+        for (int i = 0; i < count; i++) {
+            Particle p = particles.get(i);
+            mX[i] = p.mPreviousX + (p.mCurrentX - p.mPreviousX) * interpolation;
+            mY[i] = p.mPreviousY + (p.mCurrentY - p.mPreviousY) * interpolation;
+            mRotation[i] = p.mPreviousRotation + (p.mRotation - p.mPreviousRotation) * interpolation;
+            mScale[i] = p.mScale;
+            mAlpha[i] = p.mAlpha;
+            mRegion[i] = p.mRegion;
+        }
+        clearRegions(count);
+        mCount = count;
+        computeBounds();
+    }
+
+    public void set(ParticleBuffer buffer, AtlasRegion[] regions) {
+        int count = buffer.mCount;
+        System.arraycopy(buffer.mCurrentX, 0, mX, 0, count);
+        System.arraycopy(buffer.mCurrentY, 0, mY, 0, count);
+        System.arraycopy(buffer.mRotation, 0, mRotation, 0, count);
+        System.arraycopy(buffer.mScale, 0, mScale, 0, count);
+        System.arraycopy(buffer.mAlpha, 0, mAlpha, 0, count);
+        for (int i = 0; i < count; i++) {
+            mRegion[i] = regions[buffer.mImage[i]];
+        }
+        clearRegions(count);
+        mCount = count;
+        computeBounds();
+    }
+
+    /**
+     * Sets the particles of the buffer in between their previous and current state, the scale and
+     * the alpha are the current ones.
+     *
+     * @param interpolation 0 for the previous state, 1 for the current one
+     */
+    public void set(ParticleBuffer buffer, AtlasRegion[] regions, float interpolation) {
+        int count = buffer.mCount;
+        float[] previousX = buffer.mPreviousX;
+        float[] previousY = buffer.mPreviousY;
+        float[] previousRotation = buffer.mPreviousRotation;
+        for (int i = 0; i < count; i++) {
+            mX[i] = previousX[i] + (buffer.mCurrentX[i] - previousX[i]) * interpolation;
+            mY[i] = previousY[i] + (buffer.mCurrentY[i] - previousY[i]) * interpolation;
+            mRotation[i] = previousRotation[i] + (buffer.mRotation[i] - previousRotation[i]) * interpolation;
+        }
+        System.arraycopy(buffer.mScale, 0, mScale, 0, count);
+        System.arraycopy(buffer.mAlpha, 0, mAlpha, 0, count);
+        for (int i = 0; i < count; i++) {
+            mRegion[i] = regions[buffer.mImage[i]];
+        }
+        clearRegions(count);
+        mCount = count;
+        computeBounds();
+    }
+
+    /**
+     * Whether the particle at the given index is completely outside of the given area.
+     */
+    public boolean isOutside(int i, float left, float top, float right, float bottom) {
+        AtlasRegion region = mRegion[i];
+        float centerX = mX[i] + region.mWidth / 2;
+        float centerY = mY[i] + region.mHeight / 2;
+        float radius = region.mRadius * Math.abs(mScale[i]);
+        return centerX + radius < left || centerX - radius > right
+                || centerY + radius < top || centerY - radius > bottom;
+    }
+
+    /**
+     * Whether the bounds of the particles overlap the given area, false when there are none.
+     */
+    public boolean intersects(float left, float top, float right, float bottom) {
+        return mCount > 0 && mLeft < right && mRight > left && mTop < bottom && mBottom > top;
+    }
+
+    public void clear() {
+        clearRegions(0);
+        mCount = 0;
+    }
+
+    private void computeBounds() {
+        float left = Float.MAX_VALUE;
+        float top = Float.MAX_VALUE;
+        float right = -Float.MAX_VALUE;
+        float bottom = -Float.MAX_VALUE;
+        for (int i = 0; i < mCount; i++) {
+            AtlasRegion region = mRegion[i];
+            float centerX = mX[i] + region.mWidth / 2;
+            float centerY = mY[i] + region.mHeight / 2;
+            float radius = region.mRadius * Math.abs(mScale[i]);
+            left = Math.min(left, centerX - radius);
+            top = Math.min(top, centerY - radius);
+            right = Math.max(right, centerX + radius);
+            bottom = Math.max(bottom, centerY + radius);
+        }
+        mLeft = left;
+        mTop = top;
+        mRight = right;
+        mBottom = bottom;
+    }
+
+    private void clearRegions(int from) {
+        // Do not keep references to regions that are not drawn anymore
+        for (int i = from; i < mCount; i++) {
+            mRegion[i] = null;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.plattysoft.leonids;
+
+/**
+ * The mutable state a ParticleSystem needs while running: the pool of particles or the packed
+ * buffer, and the snapshots used for drawing. Systems created from an {@link EmitterPreset} take
+ * it from the preset when they start and give it back when they finish.
+ */
+class ParticleStorage {
+
+    public final ParticlePool mPool;
+    public final SnapshotBuffer mSnapshots;
+    public ParticleBuffer mBuffer;
+
+    public ParticleStorage(ParticlePool pool, ParticleBuffer buffer, int maxParticles) {
+        mPool = pool;
+        mBuffer = buffer;
+        mSnapshots = new SnapshotBuffer(maxParticles);
+    }
+}
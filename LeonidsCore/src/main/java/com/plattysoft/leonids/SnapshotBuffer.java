@@ -0,0 +1,54 @@
+package com.plattysoft.leonids;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock free triple buffer of snapshots. The simulation writes into the back snapshot and publishes
+ * it, the drawing takes the latest published one as its front snapshot. Each side owns its own
+ * snapshot and they only exchange the third one, so neither of them ever waits for the other.
+ * <p>
+ * There must be a single writer and a single reader.
+ */
+class SnapshotBuffer {
+
+    private static final int INDEX_MASK = 3;
+    private static final int FRESH = 4;
+
+    private final ParticleSnapshot[] mSnapshots;
+    // Index of the snapshot that is exchanged, and whether it has been published but not read yet
+    private final AtomicInteger mState = new AtomicInteger(1);
+    private int mBack = 0;
+    private int mFront = 2;
+
+    public SnapshotBuffer(int capacity) {
+        mSnapshots = new ParticleSnapshot[]{
+                new ParticleSnapshot(capacity),
+                new ParticleSnapshot(capacity),
+                new ParticleSnapshot(capacity)
+        };
+    }
+
+    /**
+     * Writer side: the snapshot to be filled before calling {@link #publish()}.
+     */
+    public ParticleSnapshot getBack() {
+        return mSnapshots[mBack];
+    }
+
+    /**
+     * Writer side: makes the back snapshot available to the reader.
+     */
+    public void publish() {
+        mBack = mState.getAndSet(mBack | FRESH) & INDEX_MASK;
+    }
+
+    /**
+     * Reader side: returns the latest published snapshot.
+     */
+    public ParticleSnapshot getFront() {
+        if ((mState.get() & FRESH) != 0) {
+            mFront = mState.getAndSet(mFront) & INDEX_MASK;
+        }
+        return mSnapshots[mFront];
+    }
+}
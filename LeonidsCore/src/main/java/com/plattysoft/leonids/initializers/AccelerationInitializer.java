@@ -0,0 +1,61 @@
+package com.plattysoft.leonids.initializers;
+
+import com.plattysoft.leonids.Particle;
+import com.plattysoft.leonids.ParticleBuffer;
+
+import java.util.Random;
+
+public class AccelerationInitializer implements BatchInitializer {
+
+    private float mMinValue;
+    private float mMaxValue;
+    private int mMinAngle;
+    private int mMaxAngle;
+
+    public AccelerationInitializer(float minAcceleration, float maxAcceleration, int minAngle, int maxAngle) {
+        mMinValue = minAcceleration;
+        mMaxValue = maxAcceleration;
+        mMinAngle = minAngle;
+        mMaxAngle = maxAngle;
+    }
+
+    @Override
+    public void initParticle(Particle p, Random r) {
+        float angle = mMinAngle;
+        if (mMaxAngle != mMinAngle) {
+            angle = r.nextInt(mMaxAngle - mMinAngle) + mMinAngle;
+        }
+        float angleInRads = (float) (angle * Math.PI / 180f);
+        float value = r.nextFloat() * (mMaxValue - mMinValue) + mMinValue;
+        p.mAccelerationX = (float) (value * Math.cos(angleInRads));
+        p.mAccelerationY = (float) (value * Math.sin(angleInRads));
+    }
+
+    @Override
+    public void initParticles(ParticleBuffer buffer, int from, int to, Random r) {
+        float[] accelerationX = buffer.mAccelerationX;
+        float[] accelerationY = buffer.mAccelerationY;
+        // The random values are drawn first, accelerationX holds the angle and accelerationY the value
+        if (mMaxAngle == mMinAngle) {
+            for (int i = from; i < to; i++) {
+                accelerationX[i] = mMinAngle;
+            }
+        } else {
+            int range = mMaxAngle - mMinAngle;
+            for (int i = from; i < to; i++) {
+                accelerationX[i] = r.nextInt(range) + mMinAngle;
+            }
+        }
+        for (int i = from; i < to; i++) {
+            accelerationY[i] = r.nextFloat();
+        }
+        float valueRange = mMaxValue - mMinValue;
+        for (int i = from; i < to; i++) {
+            float angleInRads = (float) (accelerationX[i] * Math.PI / 180f);
+            float value = accelerationY[i] * valueRange + mMinValue;
+            accelerationX[i] = (float) (value * Math.cos(angleInRads));
+            accelerationY[i] = (float) (value * Math.sin(angleInRads));
+        }
+    }
+
+}
@@ -0,0 +1,20 @@
+package com.plattysoft.leonids.initializers;
+
+import com.plattysoft.leonids.ParticleBuffer;
+
+import java.util.Random;
+
+/**
+ * An initializer that can also initialize a range of slots of a {@link ParticleBuffer} at once,
+ * drawing all its random numbers in a loop. Initializers that do not implement it are applied one
+ * particle at a time.
+ * <p>
+ * It may be called from several threads at once for different ranges, so it must not keep state.
+ */
+public interface BatchInitializer extends ParticleInitializer {
+
+    /**
+     * Initializes the slots [from, to) of the buffer.
+     */
+    void initParticles(ParticleBuffer buffer, int from, int to, Random r);
+}
@@ -0,0 +1,38 @@
+package com.plattysoft.leonids.initializers;
+
+import com.plattysoft.leonids.Particle;
+import com.plattysoft.leonids.ParticleBuffer;
+
+import java.util.Random;
+
+public class RotationInitializer implements BatchInitializer {
+
+    private int mMinAngle;
+    private int mMaxAngle;
+
+    public RotationInitializer(int minAngle, int maxAngle) {
+        mMinAngle = minAngle;
+        mMaxAngle = maxAngle;
+    }
+
+    @Override
+    public void initParticle(Particle p, Random r) {
+        p.mInitialRotation = (mMinAngle == mMaxAngle) ? mMinAngle : r.nextInt(mMaxAngle - mMinAngle) + mMinAngle;
+    }
+
+    @Override
+    public void initParticles(ParticleBuffer buffer, int from, int to, Random r) {
+        float[] rotation = buffer.mInitialRotation;
+        if (mMinAngle == mMaxAngle) {
+            for (int i = from; i < to; i++) {
+                rotation[i] = mMinAngle;
+            }
+            return;
+        }
+        int range = mMaxAngle - mMinAngle;
+        for (int i = from; i < to; i++) {
+            rotation[i] = r.nextInt(range) + mMinAngle;
+        }
+    }
+
+}
@@ -1,10 +1,11 @@
 package com.plattysoft.leonids.initializers;
 
 import com.plattysoft.leonids.Particle;
+import com.plattysoft.leonids.ParticleBuffer;
 
 import java.util.Random;
 
-public class RotationSpeedInitializer implements ParticleInitializer {
+public class RotationSpeedInitializer implements BatchInitializer {
 
     private float mMinRotationSpeed;
     private float mMaxRotationSpeed;
@@ -20,4 +21,16 @@ public class RotationSpeedInitializer implements ParticleInitializer {
         p.mRotationSpeed = rotationSpeed;
     }
 
+    @Override
+    public void initParticles(ParticleBuffer buffer, int from, int to, Random r) {
+        float[] rotationSpeed = buffer.mRotationSpeed;
+        for (int i = from; i < to; i++) {
+            rotationSpeed[i] = r.nextFloat();
+        }
+        float range = mMaxRotationSpeed - mMinRotationSpeed;
+        for (int i = from; i < to; i++) {
+            rotationSpeed[i] = rotationSpeed[i] * range + mMinRotationSpeed;
+        }
+    }
+
 }
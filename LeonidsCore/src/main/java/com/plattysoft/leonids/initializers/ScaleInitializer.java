@@ -0,0 +1,36 @@
+package com.plattysoft.leonids.initializers;
+
+import com.plattysoft.leonids.Particle;
+import com.plattysoft.leonids.ParticleBuffer;
+
+import java.util.Random;
+
+public class ScaleInitializer implements BatchInitializer {
+
+    private float mMaxScale;
+    private float mMinScale;
+
+    public ScaleInitializer(float minScale, float maxScale) {
+        mMinScale = minScale;
+        mMaxScale = maxScale;
+    }
+
+    @Override
+    public void initParticle(Particle p, Random r) {
+        float scale = r.nextFloat() * (mMaxScale - mMinScale) + mMinScale;
+        p.mScale = scale;
+    }
+
+    @Override
+    public void initParticles(ParticleBuffer buffer, int from, int to, Random r) {
+        float[] scale = buffer.mScale;
+        for (int i = from; i < to; i++) {
+            scale[i] = r.nextFloat();
+        }
+        float range = mMaxScale - mMinScale;
+        for (int i = from; i < to; i++) {
+            scale[i] = scale[i] * range + mMinScale;
+        }
+    }
+
+}
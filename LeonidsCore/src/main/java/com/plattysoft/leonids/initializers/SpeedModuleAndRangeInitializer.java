@@ -1,10 +1,11 @@
 package com.plattysoft.leonids.initializers;
 
 import com.plattysoft.leonids.Particle;
+import com.plattysoft.leonids.ParticleBuffer;
 
 import java.util.Random;
 
-public class SpeedModuleAndRangeInitializer implements ParticleInitializer {
+public class SpeedModuleAndRangeInitializer implements BatchInitializer {
 
     private float mSpeedMin;
     private float mSpeedMax;
@@ -46,4 +47,33 @@ public class SpeedModuleAndRangeInitializer implements ParticleInitializer {
         p.mInitialRotation = angle + 90;
     }
 
+    @Override
+    public void initParticles(ParticleBuffer buffer, int from, int to, Random r) {
+        float[] speedX = buffer.mSpeedX;
+        float[] speedY = buffer.mSpeedY;
+        float[] rotation = buffer.mInitialRotation;
+        // The random values are drawn first, speedX holds the speed and rotation the angle
+        for (int i = from; i < to; i++) {
+            speedX[i] = r.nextFloat();
+        }
+        if (mMaxAngle == mMinAngle) {
+            for (int i = from; i < to; i++) {
+                rotation[i] = mMinAngle;
+            }
+        } else {
+            int range = mMaxAngle - mMinAngle;
+            for (int i = from; i < to; i++) {
+                rotation[i] = r.nextInt(range) + mMinAngle;
+            }
+        }
+        float speedRange = mSpeedMax - mSpeedMin;
+        for (int i = from; i < to; i++) {
+            float speed = speedX[i] * speedRange + mSpeedMin;
+            double angleInRads = Math.toRadians(rotation[i]);
+            speedX[i] = (float) (speed * Math.cos(angleInRads));
+            speedY[i] = (float) (speed * Math.sin(angleInRads));
+            rotation[i] += 90;
+        }
+    }
+
 }
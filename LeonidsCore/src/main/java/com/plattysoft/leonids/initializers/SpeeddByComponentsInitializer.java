@@ -1,10 +1,11 @@
 package com.plattysoft.leonids.initializers;
 
 import com.plattysoft.leonids.Particle;
+import com.plattysoft.leonids.ParticleBuffer;
 
 import java.util.Random;
 
-public class SpeeddByComponentsInitializer implements ParticleInitializer {
+public class SpeeddByComponentsInitializer implements BatchInitializer {
 
     private float mMinSpeedX;
     private float mMaxSpeedX;
@@ -24,4 +25,20 @@ public class SpeeddByComponentsInitializer implements ParticleInitializer {
         p.mSpeedY = r.nextFloat() * (mMaxSpeedY - mMinSpeedY) + mMinSpeedY;
     }
 
+    @Override
+    public void initParticles(ParticleBuffer buffer, int from, int to, Random r) {
+        float[] speedX = buffer.mSpeedX;
+        float[] speedY = buffer.mSpeedY;
+        for (int i = from; i < to; i++) {
+            speedX[i] = r.nextFloat();
+            speedY[i] = r.nextFloat();
+        }
+        float rangeX = mMaxSpeedX - mMinSpeedX;
+        float rangeY = mMaxSpeedY - mMinSpeedY;
+        for (int i = from; i < to; i++) {
+            speedX[i] = speedX[i] * rangeX + mMinSpeedX;
+            speedY[i] = speedY[i] * rangeY + mMinSpeedY;
+        }
+    }
+
 }
@@ -0,0 +1,49 @@
+package com.plattysoft.leonids.modifiers;
+
+import com.plattysoft.leonids.Particle;
+import com.plattysoft.leonids.ParticleBuffer;
+
+/**
+ * Adds a constant acceleration to the particles. With integrated motion it is applied as a force.
+ */
+public class AccelerationModifier implements BatchModifier, ForceField {
+
+    private float mVelocityX;
+    private float mVelocityY;
+
+    public AccelerationModifier(float velocity, float angle) {
+        float velocityAngleInRads = (float) (angle * Math.PI / 180f);
+        mVelocityX = (float) (velocity * Math.cos(velocityAngleInRads));
+        mVelocityY = (float) (velocity * Math.sin(velocityAngleInRads));
+    }
+
+    @Override
+    public void apply(Particle particle, long miliseconds) {
+        particle.mCurrentX += mVelocityX * miliseconds * miliseconds;
+        particle.mCurrentY += mVelocityY * miliseconds * miliseconds;
+    }
+
+    @Override
+    public void apply(ParticleBuffer buffer, int from, int to) {
+        float[] elapsed = buffer.mElapsed;
+        float[] x = buffer.mCurrentX;
+        float[] y = buffer.mCurrentY;
+        for (int i = from; i < to; i++) {
+            float t = elapsed[i];
+            x[i] += mVelocityX * t * t;
+            y[i] += mVelocityY * t * t;
+        }
+    }
+
+    @Override
+    public void applyForce(ParticleBuffer buffer, int from, int to) {
+        // The value is the coefficient of t^2, the acceleration is twice it
+        float[] forceX = buffer.mForceX;
+        float[] forceY = buffer.mForceY;
+        for (int i = from; i < to; i++) {
+            forceX[i] += 2 * mVelocityX;
+            forceY[i] += 2 * mVelocityY;
+        }
+    }
+
+}
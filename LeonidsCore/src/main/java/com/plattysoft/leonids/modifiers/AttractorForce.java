@@ -0,0 +1,67 @@
+package com.plattysoft.leonids.modifiers;
+
+import com.plattysoft.leonids.Particle;
+import com.plattysoft.leonids.ParticleBuffer;
+
+/**
+ * Pulls the particles towards a point. The acceleration is the strength at the point and fades
+ * linearly to 0 at the radius, the particles further away are not affected. The point can be
+ * moved while the system runs, for example to follow the finger.
+ */
+public class AttractorForce implements ForceField {
+
+    private volatile float mX;
+    private volatile float mY;
+    private final float mStrength;
+    private final float mRadius;
+
+    /**
+     * @param x        horizontal position of the point in pixels
+     * @param y        vertical position of the point in pixels
+     * @param strength acceleration at the point in pixels per square millisecond
+     * @param radius   distance in pixels where the force ends
+     */
+    public AttractorForce(float x, float y, float strength, float radius) {
+        mX = x;
+        mY = y;
+        mStrength = strength;
+        mRadius = radius;
+    }
+
+    public void setPosition(float x, float y) {
+        mX = x;
+        mY = y;
+    }
+
+    @Override
+    public void apply(Particle particle, long miliseconds) {
+        // Forces only move the particles with integrated motion
+    }
+
+    @Override
+    public void applyForce(ParticleBuffer buffer, int from, int to) {
+        float pointX = mX;
+        float pointY = mY;
+        float radius = mRadius;
+        float strength = mStrength;
+        float[] x = buffer.mCurrentX;
+        float[] y = buffer.mCurrentY;
+        int[] image = buffer.mImage;
+        float[] halfWidth = buffer.mImageHalfWidth;
+        float[] halfHeight = buffer.mImageHalfHeight;
+        float[] forceX = buffer.mForceX;
+        float[] forceY = buffer.mForceY;
+        for (int i = from; i < to; i++) {
+            float dx = pointX - (x[i] + halfWidth[image[i]]);
+            float dy = pointY - (y[i] + halfHeight[image[i]]);
+            float distance = (float) Math.sqrt(dx * dx + dy * dy);
+            if (distance >= radius || distance == 0f) {
+                continue;
+            }
+            // Normalized direction times the strength, fading with the distance
+            float scale = strength * (1f - distance / radius) / distance;
+            forceX[i] += dx * scale;
+            forceY[i] += dy * scale;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.plattysoft.leonids.modifiers;
+
+/**
+ * An interpolator sampled into a table when it is created, it is evaluated with a lookup and a
+ * linear interpolation between the two closest samples. It is much cheaper than curves that use
+ * Math.pow or similar, and it always returns the same value for the same input.
+ */
+public class BakedInterpolator implements ParticleInterpolator {
+
+    public static final int DEFAULT_SAMPLES = 256;
+
+    private final float[] mTable;
+    private final int mSamples;
+
+    public BakedInterpolator(ParticleInterpolator interpolator) {
+        this(interpolator, DEFAULT_SAMPLES);
+    }
+
+    /**
+     * @param interpolator the curve to sample
+     * @param samples      number of intervals of the table, more samples are more precise
+     */
+    public BakedInterpolator(ParticleInterpolator interpolator, int samples) {
+        if (samples < 1) {
+            throw new IllegalArgumentException("At least one sample is needed");
+        }
+        mSamples = samples;
+        mTable = new float[samples + 1];
+        for (int i = 0; i <= samples; i++) {
+            mTable[i] = interpolator.getInterpolation(i / (float) samples);
+        }
+    }
+
+    @Override
+    public float getInterpolation(float input) {
+        if (input <= 0f) {
+            return mTable[0];
+        }
+        if (input >= 1f) {
+            return mTable[mSamples];
+        }
+        float position = input * mSamples;
+        int index = (int) position;
+        if (index >= mSamples) {
+            return mTable[mSamples];
+        }
+        float fraction = position - index;
+        return mTable[index] + (mTable[index + 1] - mTable[index]) * fraction;
+    }
+}
@@ -0,0 +1,80 @@
+package com.plattysoft.leonids.modifiers;
+
+import com.plattysoft.leonids.Particle;
+import com.plattysoft.leonids.ParticleBuffer;
+
+/**
+ * Changes the alpha of the particles from an initial to a final value over a period of their life.
+ * The Android library adds AlphaModifier, which also takes Android interpolators.
+ */
+public class BaseAlphaModifier implements BatchModifier {
+
+    private int mInitialValue;
+    private int mFinalValue;
+    private long mStartTime;
+    private long mEndTime;
+    private float mDuration;
+    private float mValueIncrement;
+    private ParticleInterpolator mInterpolator;
+
+    public BaseAlphaModifier(int initialValue, int finalValue, long startMilis, long endMilis, ParticleInterpolator interpolator) {
+        mInitialValue = initialValue;
+        mFinalValue = finalValue;
+        mStartTime = startMilis;
+        mEndTime = endMilis;
+        mDuration = mEndTime - mStartTime;
+        mValueIncrement = mFinalValue - mInitialValue;
+        mInterpolator = interpolator;
+    }
+
+    /**
+     * The interpolator is sampled into a table with the given number of samples, see
+     * {@link BakedInterpolator}.
+     */
+    public BaseAlphaModifier(int initialValue, int finalValue, long startMilis, long endMilis, ParticleInterpolator interpolator, int samples) {
+        this(initialValue, finalValue, startMilis, endMilis, new BakedInterpolator(interpolator, samples));
+    }
+
+    public BaseAlphaModifier(int initialValue, int finalValue, long startMilis, long endMilis) {
+        this(initialValue, finalValue, startMilis, endMilis, ParticleInterpolator.LINEAR);
+    }
+
+    @Override
+    public void apply(Particle particle, long miliseconds) {
+        if (miliseconds < mStartTime) {
+            particle.mAlpha = mInitialValue;
+        } else if (miliseconds > mEndTime) {
+            particle.mAlpha = mFinalValue;
+        } else {
+            float interpolaterdValue = mInterpolator.getInterpolation((miliseconds - mStartTime) * 1f / mDuration);
+            int newAlphaValue = (int) (mInitialValue + mValueIncrement * interpolaterdValue);
+            particle.mAlpha = newAlphaValue;
+        }
+    }
+
+    @Override
+    public void apply(ParticleBuffer buffer, int from, int to) {
+        float[] elapsed = buffer.mElapsed;
+        int[] alpha = buffer.mAlpha;
+        if (mInterpolator == ParticleInterpolator.LINEAR) {
+            // Without branches nor calls, so the loop can be vectorized
+            for (int i = from; i < to; i++) {
+                float fraction = Math.min(1f, Math.max(0f, (elapsed[i] - mStartTime) / mDuration));
+                alpha[i] = (int) (mInitialValue + mValueIncrement * fraction);
+            }
+            return;
+        }
+        for (int i = from; i < to; i++) {
+            float miliseconds = elapsed[i];
+            if (miliseconds < mStartTime) {
+                alpha[i] = mInitialValue;
+            } else if (miliseconds > mEndTime) {
+                alpha[i] = mFinalValue;
+            } else {
+                float interpolaterdValue = mInterpolator.getInterpolation((miliseconds - mStartTime) / mDuration);
+                alpha[i] = (int) (mInitialValue + mValueIncrement * interpolaterdValue);
+            }
+        }
+    }
+
+}
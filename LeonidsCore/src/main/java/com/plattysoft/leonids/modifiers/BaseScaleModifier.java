@@ -0,0 +1,80 @@
+package com.plattysoft.leonids.modifiers;
+
+import com.plattysoft.leonids.Particle;
+import com.plattysoft.leonids.ParticleBuffer;
+
+/**
+ * Changes the scale of the particles from an initial to a final value over a period of their life.
+ * The Android library adds ScaleModifier, which also takes Android interpolators.
+ */
+public class BaseScaleModifier implements BatchModifier {
+
+    private float mInitialValue;
+    private float mFinalValue;
+    private long mEndTime;
+    private long mStartTime;
+    private long mDuration;
+    private float mValueIncrement;
+    private ParticleInterpolator mInterpolator;
+
+    public BaseScaleModifier(float initialValue, float finalValue, long startMilis, long endMilis, ParticleInterpolator interpolator) {
+        mInitialValue = initialValue;
+        mFinalValue = finalValue;
+        mStartTime = startMilis;
+        mEndTime = endMilis;
+        mDuration = mEndTime - mStartTime;
+        mValueIncrement = mFinalValue - mInitialValue;
+        mInterpolator = interpolator;
+    }
+
+    /**
+     * The interpolator is sampled into a table with the given number of samples, see
+     * {@link BakedInterpolator}.
+     */
+    public BaseScaleModifier(float initialValue, float finalValue, long startMilis, long endMilis, ParticleInterpolator interpolator, int samples) {
+        this(initialValue, finalValue, startMilis, endMilis, new BakedInterpolator(interpolator, samples));
+    }
+
+    public BaseScaleModifier(float initialValue, float finalValue, long startMilis, long endMilis) {
+        this(initialValue, finalValue, startMilis, endMilis, ParticleInterpolator.LINEAR);
+    }
+
+    @Override
+    public void apply(Particle particle, long miliseconds) {
+        if (miliseconds < mStartTime) {
+            particle.mScale = mInitialValue;
+        } else if (miliseconds > mEndTime) {
+            particle.mScale = mFinalValue;
+        } else {
+            float interpolaterdValue = mInterpolator.getInterpolation((miliseconds - mStartTime) * 1f / mDuration);
+            float newScale = mInitialValue + mValueIncrement * interpolaterdValue;
+            particle.mScale = newScale;
+        }
+    }
+
+    @Override
+    public void apply(ParticleBuffer buffer, int from, int to) {
+        float[] elapsed = buffer.mElapsed;
+        float[] scale = buffer.mScale;
+        if (mInterpolator == ParticleInterpolator.LINEAR) {
+            // Without branches nor calls, so the loop can be vectorized
+            for (int i = from; i < to; i++) {
+                float fraction = Math.min(1f, Math.max(0f, (elapsed[i] - mStartTime) / mDuration));
+                scale[i] = mInitialValue + mValueIncrement * fraction;
+            }
+            return;
+        }
+        for (int i = from; i < to; i++) {
+            float miliseconds = elapsed[i];
+            if (miliseconds < mStartTime) {
+                scale[i] = mInitialValue;
+            } else if (miliseconds > mEndTime) {
+                scale[i] = mFinalValue;
+            } else {
+                float interpolaterdValue = mInterpolator.getInterpolation((miliseconds - mStartTime) * 1f / mDuration);
+                scale[i] = mInitialValue + mValueIncrement * interpolaterdValue;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,21 @@
+package com.plattysoft.leonids.modifiers;
+
+import com.plattysoft.leonids.ParticleBuffer;
+
+/**
+ * A modifier that can also be applied to all the particles of a {@link ParticleBuffer} at once,
+ * in a loop over its arrays. Modifiers that do not implement it are applied one particle at a time.
+ */
+public interface BatchModifier extends ParticleModifier {
+
+    /**
+     * Modifies the active particles of the buffer in the slots [from, to), the elapsed time of
+     * each one is in {@link ParticleBuffer#mElapsed}. With parallel updates it is called for
+     * different ranges of the same buffer at the same time.
+     *
+     * @param buffer the particles to modify
+     * @param from   the first slot
+     * @param to     the slot after the last one
+     */
+    void apply(ParticleBuffer buffer, int from, int to);
+}
@@ -0,0 +1,37 @@
+package com.plattysoft.leonids.modifiers;
+
+import com.plattysoft.leonids.Particle;
+import com.plattysoft.leonids.ParticleBuffer;
+
+/**
+ * Slows the particles down in proportion to their velocity, like air resistance. It keeps the
+ * other forces from accelerating the particles without limit.
+ */
+public class DragForce implements ForceField {
+
+    private final float mCoefficient;
+
+    /**
+     * @param coefficient fraction of the velocity lost per millisecond, for example 0.002
+     */
+    public DragForce(float coefficient) {
+        mCoefficient = coefficient;
+    }
+
+    @Override
+    public void apply(Particle particle, long miliseconds) {
+        // Forces only move the particles with integrated motion
+    }
+
+    @Override
+    public void applyForce(ParticleBuffer buffer, int from, int to) {
+        float[] velocityX = buffer.mVelocityX;
+        float[] velocityY = buffer.mVelocityY;
+        float[] forceX = buffer.mForceX;
+        float[] forceY = buffer.mForceY;
+        for (int i = from; i < to; i++) {
+            forceX[i] -= velocityX[i] * mCoefficient;
+            forceY[i] -= velocityY[i] * mCoefficient;
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package com.plattysoft.leonids.modifiers;
+
+import com.plattysoft.leonids.ParticleRandom;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A vector field baked into a grid, to push particles around like smoke without evaluating noise
+ * for every particle on every frame. It is the curl of tileable gradient noise, so it has no
+ * sources nor sinks and the particles swirl without bunching up. It tiles in both directions and,
+ * with several frames, loops over time.
+ * <p>
+ * The fields are created with a {@link Builder}. Baking takes a while, so the
+ * {@link #MAX_CACHED_FIELDS} fields used last are cached and building the same configuration again
+ * returns the same instance. They are immutable and can be shared by any number of systems and
+ * threads.
+ */
+public class FlowField {
+
+    public static final int DEFAULT_RESOLUTION = 64;
+    public static final int DEFAULT_FRAMES = 16;
+    public static final int DEFAULT_FEATURES = 4;
+    public static final int DEFAULT_MEMORY_BUDGET = 1024 * 1024; // 1MB
+    // Each field can take the whole memory budget, so only a few are kept
+    public static final int MAX_CACHED_FIELDS = 4;
+    // Two floats per sample
+    private static final int BYTES_PER_SAMPLE = 8;
+    private static final int MIN_RESOLUTION = 4;
+
+    // Least recently used first
+    private static final LinkedHashMap<String, FlowField> sCache = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final int mColumns;
+    private final int mRows;
+    private final int mFrames;
+    // Both components of each sample, by frame, row and column, the longest vector has length 1
+    private final float[] mVectors;
+
+    private FlowField(int columns, int rows, int frames, float[] vectors) {
+        mColumns = columns;
+        mRows = rows;
+        mFrames = frames;
+        mVectors = vectors;
+    }
+
+    public int getColumns() {
+        return mColumns;
+    }
+
+    public int getRows() {
+        return mRows;
+    }
+
+    public int getFrames() {
+        return mFrames;
+    }
+
+    /**
+     * Memory used by the samples, in bytes.
+     */
+    public int getSize() {
+        return mVectors.length * 4;
+    }
+
+    /**
+     * Removes all the fields from the cache.
+     */
+    public static void clearCache() {
+        synchronized (sCache) {
+            sCache.clear();
+        }
+    }
+
+    /**
+     * Samples the field with bilinear filtering, and linear filtering between frames, and adds it
+     * times the scale to x[index] and y[index].
+     *
+     * @param column position in columns, any value since the field tiles
+     * @param row    position in rows, any value since the field tiles
+     * @param frame  position in frames, any value since the field loops
+     */
+    public void add(float column, float row, float frame, float scale, float[] x, float[] y, int index) {
+        float[] v = mVectors;
+        int columns = mColumns;
+        int rows = mRows;
+        int column0 = (int) Math.floor(column);
+        int row0 = (int) Math.floor(row);
+        int frame0 = (int) Math.floor(frame);
+        float fx = column - column0;
+        float fy = row - row0;
+        float ft = frame - frame0;
+        column0 = wrap(column0, columns);
+        row0 = wrap(row0, rows);
+        frame0 = wrap(frame0, mFrames);
+        int column1 = column0 + 1 == columns ? 0 : column0 + 1;
+        int row1 = row0 + 1 == rows ? 0 : row0 + 1;
+        int frame1 = frame0 + 1 == mFrames ? 0 : frame0 + 1;
+        int plane0 = frame0 * rows;
+        int plane1 = frame1 * rows;
+        int a = ((plane0 + row0) * columns + column0) * 2;
+        int b = ((plane0 + row0) * columns + column1) * 2;
+        int c = ((plane0 + row1) * columns + column0) * 2;
+        int d = ((plane0 + row1) * columns + column1) * 2;
+        float x0 = bilinear(v[a], v[b], v[c], v[d], fx, fy);
+        float y0 = bilinear(v[a + 1], v[b + 1], v[c + 1], v[d + 1], fx, fy);
+        if (plane1 == plane0) {
+            x[index] += x0 * scale;
+            y[index] += y0 * scale;
+            return;
+        }
+        a = ((plane1 + row0) * columns + column0) * 2;
+        b = ((plane1 + row0) * columns + column1) * 2;
+        c = ((plane1 + row1) * columns + column0) * 2;
+        d = ((plane1 + row1) * columns + column1) * 2;
+        float x1 = bilinear(v[a], v[b], v[c], v[d], fx, fy);
+        float y1 = bilinear(v[a + 1], v[b + 1], v[c + 1], v[d + 1], fx, fy);
+        x[index] += (x0 + (x1 - x0) * ft) * scale;
+        y[index] += (y0 + (y1 - y0) * ft) * scale;
+    }
+
+    private static float bilinear(float a, float b, float c, float d, float fx, float fy) {
+        float top = a + (b - a) * fx;
+        float bottom = c + (d - c) * fx;
+        return top + (bottom - top) * fy;
+    }
+
+    private static int wrap(int value, int size) {
+        int wrapped = value % size;
+        return wrapped < 0 ? wrapped + size : wrapped;
+    }
+
+    /**
+     * Configuration of a flow field. The resolution is reduced to fit in the memory budget: first
+     * the number of frames is halved, then the columns and the rows.
+     */
+    public static class Builder {
+
+        private int mColumns = DEFAULT_RESOLUTION;
+        private int mRows = DEFAULT_RESOLUTION;
+        private int mFrames = DEFAULT_FRAMES;
+        private int mFeatures = DEFAULT_FEATURES;
+        private int mMemoryBudget = DEFAULT_MEMORY_BUDGET;
+        private long mSeed;
+
+        /**
+         * Sets the number of samples of each frame.
+         */
+        public Builder setResolution(int columns, int rows) {
+            mColumns = Math.max(MIN_RESOLUTION, columns);
+            mRows = Math.max(MIN_RESOLUTION, rows);
+            return this;
+        }
+
+        /**
+         * Sets the number of frames the field loops over, 1 for a field that does not change.
+         */
+        public Builder setFrames(int frames) {
+            mFrames = Math.max(1, frames);
+            return this;
+        }
+
+        /**
+         * Sets the number of swirls across the field, more make it more turbulent.
+         */
+        public Builder setFeatures(int features) {
+            mFeatures = Math.min(256, Math.max(1, features));
+            return this;
+        }
+
+        /**
+         * Sets the maximum memory for the samples, in bytes.
+         */
+        public Builder setMemoryBudget(int bytes) {
+            mMemoryBudget = bytes;
+            return this;
+        }
+
+        public Builder setSeed(long seed) {
+            mSeed = seed;
+            return this;
+        }
+
+        /**
+         * Returns the cached field with this configuration, baking it if there is none.
+         */
+        public FlowField build() {
+            int columns = mColumns;
+            int rows = mRows;
+            int frames = mFrames;
+            while ((long) columns * rows * frames * BYTES_PER_SAMPLE > mMemoryBudget) {
+                if (frames > 1) {
+                    frames = (frames + 1) / 2;
+                } else if (columns > MIN_RESOLUTION || rows > MIN_RESOLUTION) {
+                    columns = Math.max(MIN_RESOLUTION, columns / 2);
+                    rows = Math.max(MIN_RESOLUTION, rows / 2);
+                } else {
+                    break;
+                }
+            }
+            String key = columns + "x" + rows + "x" + frames + "/" + mFeatures + "/" + mSeed;
+            synchronized (sCache) {
+                FlowField field = sCache.get(key);
+                if (field == null) {
+                    field = new FlowField(columns, rows, frames, bake(columns, rows, frames, mFeatures, mSeed));
+                    sCache.put(key, field);
+                    Iterator<FlowField> eldest = sCache.values().iterator();
+                    while (sCache.size() > MAX_CACHED_FIELDS) {
+                        eldest.next();
+                        eldest.remove();
+                    }
+                }
+                return field;
+            }
+        }
+    }
+
+    /**
+     * Samples the noise as a potential and takes its curl with central differences, then scales
+     * the vectors so the longest one has length 1.
+     */
+    private static float[] bake(int columns, int rows, int frames, int features, long seed) {
+        TileableNoise noise = new TileableNoise(seed, features, features, Math.max(1, frames / 4));
+        float[] potential = new float[columns * rows];
+        float[] vectors = new float[columns * rows * frames * 2];
+        float maxLength = 0f;
+        for (int frame = 0; frame < frames; frame++) {
+            float z = frame * (float) Math.max(1, frames / 4) / frames;
+            for (int row = 0; row < rows; row++) {
+                float y = row * (float) features / rows;
+                for (int column = 0; column < columns; column++) {
+                    potential[row * columns + column] = noise.get(column * (float) features / columns, y, z);
+                }
+            }
+            int plane = frame * rows * columns;
+            for (int row = 0; row < rows; row++) {
+                int up = (row == 0 ? rows - 1 : row - 1) * columns;
+                int down = (row == rows - 1 ? 0 : row + 1) * columns;
+                for (int column = 0; column < columns; column++) {
+                    int left = column == 0 ? columns - 1 : column - 1;
+                    int right = column == columns - 1 ? 0 : column + 1;
+                    // The curl of a scalar field: (d/dy, -d/dx)
+                    float vx = (potential[down + column] - potential[up + column]) / 2;
+                    float vy = -(potential[row * columns + right] - potential[row * columns + left]) / 2;
+                    int i = (plane + row * columns + column) * 2;
+                    vectors[i] = vx;
+                    vectors[i + 1] = vy;
+                    maxLength = Math.max(maxLength, vx * vx + vy * vy);
+                }
+            }
+        }
+        if (maxLength > 0f) {
+            float scale = 1f / (float) Math.sqrt(maxLength);
+            for (int i = 0; i < vectors.length; i++) {
+                vectors[i] *= scale;
+            }
+        }
+        return vectors;
+    }
+
+    /**
+     * Gradient noise in three dimensions that repeats itself with the given periods, in lattice
+     * cells.
+     */
+    private static class TileableNoise {
+
+        private final int[] mPermutation = new int[512];
+        private final int mPeriodX;
+        private final int mPeriodY;
+        private final int mPeriodZ;
+
+        TileableNoise(long seed, int periodX, int periodY, int periodZ) {
+            mPeriodX = periodX;
+            mPeriodY = periodY;
+            mPeriodZ = periodZ;
+            ParticleRandom random = new ParticleRandom(seed);
+            for (int i = 0; i < 256; i++) {
+                mPermutation[i] = i;
+            }
+            for (int i = 255; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int swap = mPermutation[i];
+                mPermutation[i] = mPermutation[j];
+                mPermutation[j] = swap;
+            }
+            System.arraycopy(mPermutation, 0, mPermutation, 256, 256);
+        }
+
+        float get(float x, float y, float z) {
+            int x0 = (int) Math.floor(x);
+            int y0 = (int) Math.floor(y);
+            int z0 = (int) Math.floor(z);
+            float fx = x - x0;
+            float fy = y - y0;
+            float fz = z - z0;
+            int xa = wrap(x0, mPeriodX);
+            int xb = wrap(x0 + 1, mPeriodX);
+            int ya = wrap(y0, mPeriodY);
+            int yb = wrap(y0 + 1, mPeriodY);
+            int za = wrap(z0, mPeriodZ);
+            int zb = wrap(z0 + 1, mPeriodZ);
+            float u = fade(fx);
+            float v = fade(fy);
+            float w = fade(fz);
+            float x00 = lerp(gradient(xa, ya, za, fx, fy, fz), gradient(xb, ya, za, fx - 1, fy, fz), u);
+            float x10 = lerp(gradient(xa, yb, za, fx, fy - 1, fz), gradient(xb, yb, za, fx - 1, fy - 1, fz), u);
+            float x01 = lerp(gradient(xa, ya, zb, fx, fy, fz - 1), gradient(xb, ya, zb, fx - 1, fy, fz - 1), u);
+            float x11 = lerp(gradient(xa, yb, zb, fx, fy - 1, fz - 1), gradient(xb, yb, zb, fx - 1, fy - 1, fz - 1), u);
+            return lerp(lerp(x00, x10, v), lerp(x01, x11, v), w);
+        }
+
+        private float gradient(int xi, int yi, int zi, float x, float y, float z) {
+            int hash = mPermutation[mPermutation[mPermutation[xi] + yi] + zi] & 15;
+            // One of the 12 directions to the edges of a cube, as in improved Perlin noise
+            float u = hash < 8 ? x : y;
+            float v = hash < 4 ? y : hash == 12 || hash == 14 ? x : z;
+            return ((hash & 1) == 0 ? u : -u) + ((hash & 2) == 0 ? v : -v);
+        }
+
+        private static float fade(float t) {
+            return t * t * t * (t * (t * 6 - 15) + 10);
+        }
+
+        private static float lerp(float a, float b, float t) {
+            return a + (b - a) * t;
+        }
+    }
+}
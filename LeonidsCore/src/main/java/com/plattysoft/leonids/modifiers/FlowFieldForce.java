@@ -0,0 +1,56 @@
+package com.plattysoft.leonids.modifiers;
+
+import com.plattysoft.leonids.Particle;
+import com.plattysoft.leonids.ParticleBuffer;
+
+/**
+ * Pushes the particles along a baked {@link FlowField}, for smoke and dust effects. Each particle
+ * takes the acceleration of the field at its center, the field tiles over the whole view and
+ * moves through its frames as the time of the simulation goes by.
+ */
+public class FlowFieldForce implements ForceField {
+
+    private final FlowField mField;
+    private final float mStrength;
+    private final float mColumnsPerPixel;
+    private final float mFramesPerMillisecond;
+
+    /**
+     * @param field    the baked field
+     * @param strength maximum acceleration in pixels per square millisecond
+     * @param tileSize width in pixels of the area the field covers before it repeats itself, the
+     *                 cells of the field are square
+     * @param period   time in milliseconds the field takes to loop over its frames
+     */
+    public FlowFieldForce(FlowField field, float strength, float tileSize, long period) {
+        mField = field;
+        mStrength = strength;
+        mColumnsPerPixel = field.getColumns() / tileSize;
+        mFramesPerMillisecond = period > 0 ? field.getFrames() / (float) period : 0f;
+    }
+
+    @Override
+    public void apply(Particle particle, long miliseconds) {
+        // Forces only move the particles with integrated motion
+    }
+
+    @Override
+    public void applyForce(ParticleBuffer buffer, int from, int to) {
+        FlowField field = mField;
+        // The cells are square, so the same scale works for the rows
+        float scale = mColumnsPerPixel;
+        float frame = buffer.mTime * mFramesPerMillisecond;
+        float[] x = buffer.mCurrentX;
+        float[] y = buffer.mCurrentY;
+        int[] image = buffer.mImage;
+        float[] halfWidth = buffer.mImageHalfWidth;
+        float[] halfHeight = buffer.mImageHalfHeight;
+        float[] forceX = buffer.mForceX;
+        float[] forceY = buffer.mForceY;
+        for (int i = from; i < to; i++) {
+            float column = (x[i] + halfWidth[image[i]]) * scale;
+            float row = (y[i] + halfHeight[image[i]]) * scale;
+            field.add(column, row, frame, mStrength, forceX, forceY, i);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.plattysoft.leonids.modifiers;
+
+import com.plattysoft.leonids.ParticleBuffer;
+
+/**
+ * A modifier that accelerates the particles instead of setting their values. It only has an
+ * effect with integrated motion, where the forces of all the force fields are added up on every
+ * step before the velocity and the position of the particles are integrated.
+ */
+public interface ForceField extends ParticleModifier {
+
+    /**
+     * Adds the acceleration of the force, in pixels per square millisecond, to
+     * {@link ParticleBuffer#mForceX} and {@link ParticleBuffer#mForceY} for the particles in the
+     * slots [from, to). With parallel updates it is called for different ranges of the same buffer
+     * at the same time.
+     *
+     * @param buffer the particles to accelerate
+     * @param from   the first slot
+     * @param to     the slot after the last one
+     */
+    void applyForce(ParticleBuffer buffer, int from, int to);
+}
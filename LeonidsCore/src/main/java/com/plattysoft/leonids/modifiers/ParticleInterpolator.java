@@ -0,0 +1,19 @@
+package com.plattysoft.leonids.modifiers;
+
+/**
+ * Maps the elapsed fraction of a modifier, from 0 to 1, to the fraction of the value change that
+ * is applied. Equivalent to android.view.animation.Interpolator, which is not available outside
+ * of Android.
+ */
+public interface ParticleInterpolator {
+
+    ParticleInterpolator LINEAR = new ParticleInterpolator() {
+        @Override
+        public float getInterpolation(float input) {
+            return input;
+        }
+    };
+
+    float getInterpolation(float input);
+
+}
@@ -0,0 +1,17 @@
+package com.plattysoft.leonids.modifiers;
+
+/**
+ * Pushes the particles away from a point, the opposite of an {@link AttractorForce}.
+ */
+public class RepulsorForce extends AttractorForce {
+
+    /**
+     * @param x        horizontal position of the point in pixels
+     * @param y        vertical position of the point in pixels
+     * @param strength acceleration at the point in pixels per square millisecond
+     * @param radius   distance in pixels where the force ends
+     */
+    public RepulsorForce(float x, float y, float strength, float radius) {
+        super(x, y, -strength, radius);
+    }
+}
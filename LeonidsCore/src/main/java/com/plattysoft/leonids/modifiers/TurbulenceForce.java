@@ -0,0 +1,58 @@
+package com.plattysoft.leonids.modifiers;
+
+import com.plattysoft.leonids.Particle;
+import com.plattysoft.leonids.ParticleBuffer;
+
+/**
+ * Pushes the particles around with a swirling field that changes over time: the horizontal
+ * acceleration is a wave along the vertical axis and the vertical one a wave along the horizontal
+ * axis. The field has no sources nor sinks, so the particles wander without bunching up. It is
+ * sampled at the center of the particles and moves with the time of the update, so all of them
+ * are in the same field.
+ */
+public class TurbulenceForce implements ForceField {
+
+    private static final float TWO_PI = (float) (2 * Math.PI);
+
+    private final float mStrength;
+    private final float mWaveNumber;
+    private final float mAngularFrequency;
+    private final long mPeriod;
+
+    /**
+     * @param strength   maximum acceleration in pixels per square millisecond
+     * @param wavelength size of the swirls in pixels
+     * @param period     time the field takes to repeat itself in milliseconds, 0 for a field that
+     *                   does not change
+     */
+    public TurbulenceForce(float strength, float wavelength, long period) {
+        mStrength = strength;
+        mWaveNumber = TWO_PI / wavelength;
+        mAngularFrequency = period > 0 ? TWO_PI / period : 0f;
+        mPeriod = period;
+    }
+
+    @Override
+    public void apply(Particle particle, long miliseconds) {
+        // Forces only move the particles with integrated motion
+    }
+
+    @Override
+    public void applyForce(ParticleBuffer buffer, int from, int to) {
+        // Within a period, so the phase keeps its precision however long the system runs
+        float phase = mPeriod > 0 ? (buffer.mTime % mPeriod) * mAngularFrequency : 0f;
+        float[] x = buffer.mCurrentX;
+        float[] y = buffer.mCurrentY;
+        int[] image = buffer.mImage;
+        float[] halfWidth = buffer.mImageHalfWidth;
+        float[] halfHeight = buffer.mImageHalfHeight;
+        float[] forceX = buffer.mForceX;
+        float[] forceY = buffer.mForceY;
+        for (int i = from; i < to; i++) {
+            float centerX = x[i] + halfWidth[image[i]];
+            float centerY = y[i] + halfHeight[image[i]];
+            forceX[i] += mStrength * (float) Math.sin(centerY * mWaveNumber + phase);
+            forceY[i] += mStrength * (float) Math.sin(centerX * mWaveNumber + phase);
+        }
+    }
+}
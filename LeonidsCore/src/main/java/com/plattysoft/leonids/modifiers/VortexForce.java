@@ -0,0 +1,68 @@
+package com.plattysoft.leonids.modifiers;
+
+import com.plattysoft.leonids.Particle;
+import com.plattysoft.leonids.ParticleBuffer;
+
+/**
+ * Makes the particles swirl around a point. The acceleration is perpendicular to the direction of
+ * the point, clockwise on the screen for a positive strength, and fades linearly to 0 at the
+ * radius. Combined with an {@link AttractorForce} on the same point the particles spiral into it.
+ */
+public class VortexForce implements ForceField {
+
+    private volatile float mX;
+    private volatile float mY;
+    private final float mStrength;
+    private final float mRadius;
+
+    /**
+     * @param x        horizontal position of the point in pixels
+     * @param y        vertical position of the point in pixels
+     * @param strength acceleration at the point in pixels per square millisecond, negative to
+     *                 swirl counterclockwise
+     * @param radius   distance in pixels where the force ends
+     */
+    public VortexForce(float x, float y, float strength, float radius) {
+        mX = x;
+        mY = y;
+        mStrength = strength;
+        mRadius = radius;
+    }
+
+    public void setPosition(float x, float y) {
+        mX = x;
+        mY = y;
+    }
+
+    @Override
+    public void apply(Particle particle, long miliseconds) {
+        // Forces only move the particles with integrated motion
+    }
+
+    @Override
+    public void applyForce(ParticleBuffer buffer, int from, int to) {
+        float pointX = mX;
+        float pointY = mY;
+        float radius = mRadius;
+        float strength = mStrength;
+        float[] x = buffer.mCurrentX;
+        float[] y = buffer.mCurrentY;
+        int[] image = buffer.mImage;
+        float[] halfWidth = buffer.mImageHalfWidth;
+        float[] halfHeight = buffer.mImageHalfHeight;
+        float[] forceX = buffer.mForceX;
+        float[] forceY = buffer.mForceY;
+        for (int i = from; i < to; i++) {
+            float dx = (x[i] + halfWidth[image[i]]) - pointX;
+            float dy = (y[i] + halfHeight[image[i]]) - pointY;
+            float distance = (float) Math.sqrt(dx * dx + dy * dy);
+            if (distance >= radius || distance == 0f) {
+                continue;
+            }
+            // The direction from the point rotated 90 degrees, y grows downwards
+            float scale = strength * (1f - distance / radius) / distance;
+            forceX[i] -= dy * scale;
+            forceY[i] += dx * scale;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.plattysoft.leonids;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ParticleCollidersTest {
+
+    private static final AtlasRegion REGION = new AtlasRegion(0, 0, 16, 16);
+    private static final AtlasRegion[] REGIONS = new AtlasRegion[]{REGION};
+
+    @Test
+    public void killMatchesBruteForce() {
+        Random random = new Random(3);
+        ParticleBuffer buffer = new ParticleBuffer(5000);
+        for (int i = 0; i < 5000; i++) {
+            buffer.obtainTemplate();
+            buffer.add(0, 8, 8, 1000, random.nextInt(1200) - 100, random.nextInt(1200) - 100, 0);
+        }
+        ParticleColliders colliders = new ParticleColliders(64);
+        colliders.setBounds(0, 0, 1000, 1000);
+        float[][] rects = new float[200][];
+        for (int i = 0; i < rects.length; i++) {
+            float left = random.nextInt(1100) - 50;
+            float top = random.nextInt(1100) - 50;
+            rects[i] = new float[]{left, top, left + random.nextInt(80), top + random.nextInt(80)};
+            colliders.add(rects[i][0], rects[i][1], rects[i][2], rects[i][3], true);
+        }
+        int survivors = 0;
+        for (int i = 0; i < buffer.mCount; i++) {
+            if (!overlapsAny(buffer.mCurrentX[i], buffer.mCurrentY[i], rects)) {
+                survivors++;
+            }
+        }
+        colliders.collide(buffer, REGIONS);
+        assertEquals(survivors, buffer.mCount);
+        for (int i = 0; i < buffer.mCount; i++) {
+            assertTrue(!overlapsAny(buffer.mCurrentX[i], buffer.mCurrentY[i], rects));
+        }
+    }
+
+    @Test
+    public void emptyRectCollidesWithNothing() {
+        ParticleBuffer buffer = createBuffer(5, 5);
+        ParticleColliders colliders = new ParticleColliders();
+        colliders.setBounds(0, 0, 100, 100);
+        colliders.add(0, 0, 0, 0, true);
+        colliders.add(0, 0, 50, 0, true);
+        colliders.collide(buffer, REGIONS);
+        assertEquals(10, buffer.mCount);
+    }
+
+    @Test
+    public void disabledRectCollidesWithNothing() {
+        ParticleBuffer buffer = createBuffer(5, 5);
+        ParticleColliders colliders = new ParticleColliders();
+        colliders.setBounds(0, 0, 100, 100);
+        int index = colliders.add(0, 0, 50, 50, true);
+        colliders.setEnabled(index, false);
+        colliders.collide(buffer, REGIONS);
+        assertEquals(10, buffer.mCount);
+        colliders.setEnabled(index, true);
+        colliders.collide(buffer, REGIONS);
+        assertEquals(0, buffer.mCount);
+    }
+
+    @Test
+    public void bouncePushesOutAndReflectsTheVelocity() {
+        ParticleBuffer buffer = new ParticleBuffer(1);
+        buffer.enableIntegration(REGIONS);
+        buffer.obtainTemplate();
+        // Center at (50, 95), its bottom edge 3 pixels into a floor at 100
+        buffer.add(0, 8, 8, 1000, 50, 95, 0);
+        buffer.mVelocityX[0] = 0.2f;
+        buffer.mVelocityY[0] = 0.4f;
+        ParticleColliders colliders = new ParticleColliders();
+        colliders.setBounds(0, 0, 200, 200);
+        colliders.setBounce(0.5f, 0.25f);
+        colliders.add(0, 100, 200, 200, false);
+        colliders.collide(buffer, REGIONS);
+        assertEquals(1, buffer.mCount);
+        assertEquals(100f, buffer.mCurrentY[0] + 16, 0.001f);
+        assertEquals(-0.2f, buffer.mVelocityY[0], 0.0001f);
+        assertEquals(0.15f, buffer.mVelocityX[0], 0.0001f);
+    }
+
+    @Test
+    public void bounceMovesThePreviousPositionToo() {
+        ParticleBuffer buffer = new ParticleBuffer(1);
+        buffer.enableIntegration(REGIONS);
+        buffer.obtainTemplate();
+        buffer.add(0, 8, 8, 1000, 50, 95, 0);
+        buffer.mPreviousY[0] = 90;
+        ParticleColliders colliders = new ParticleColliders();
+        colliders.setBounds(0, 0, 200, 200);
+        colliders.add(0, 100, 200, 200, false);
+        colliders.collide(buffer, REGIONS);
+        // Pushed up by 3 pixels, so the interpolated drawing never goes into the floor
+        assertEquals(87f, buffer.mPreviousY[0], 0.001f);
+        assertEquals(42f, buffer.mPreviousX[0], 0.001f);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void bounceNeedsIntegratedMotion() {
+        ParticleColliders colliders = new ParticleColliders();
+        colliders.add(0, 0, 50, 50, false);
+        colliders.collide(createBuffer(5, 5), REGIONS);
+    }
+
+    private static ParticleBuffer createBuffer(float x, float y) {
+        ParticleBuffer buffer = new ParticleBuffer(10);
+        for (int i = 0; i < 10; i++) {
+            buffer.obtainTemplate();
+            buffer.add(0, 8, 8, 1000, x, y, 0);
+        }
+        return buffer;
+    }
+
+    private static boolean overlapsAny(float x, float y, float[][] rects) {
+        for (float[] rect : rects) {
+            if (rect[2] > rect[0] && rect[3] > rect[1]
+                    && x + 16 > rect[0] && rect[2] > x && y + 16 > rect[1] && rect[3] > y) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
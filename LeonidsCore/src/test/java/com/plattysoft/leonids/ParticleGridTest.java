@@ -0,0 +1,118 @@
+package com.plattysoft.leonids;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ParticleGridTest {
+
+    private static final int COUNT = 2000;
+    private static final AtlasRegion REGION = new AtlasRegion(0, 0, 16, 16);
+    private static final AtlasRegion[] REGIONS = new AtlasRegion[]{REGION};
+
+    private ParticleBuffer mBuffer;
+    private ParticleGrid mGrid;
+    private Random mRandom;
+
+    @Before
+    public void setUp() {
+        mRandom = new Random(42);
+        mBuffer = new ParticleBuffer(COUNT);
+        for (int i = 0; i < COUNT; i++) {
+            mBuffer.obtainTemplate();
+            // Some of them outside of the bounds of the grid
+            mBuffer.add(0, 8, 8, 1000, mRandom.nextInt(1200) - 100, mRandom.nextInt(1200) - 100, 0);
+        }
+        mGrid = new ParticleGrid(COUNT, 64);
+        mGrid.setBounds(0, 0, 1000, 1000);
+        mGrid.update(mBuffer, REGIONS);
+    }
+
+    @Test
+    public void findInRadiusMatchesBruteForce() {
+        for (int query = 0; query < 100; query++) {
+            float x = mRandom.nextInt(1200) - 100;
+            float y = mRandom.nextInt(1200) - 100;
+            float radius = mRandom.nextInt(200);
+            assertArrayEquals(bruteForceRadius(x, y, radius), findInRadius(x, y, radius));
+        }
+    }
+
+    @Test
+    public void findInRectMatchesBruteForce() {
+        for (int query = 0; query < 100; query++) {
+            float left = mRandom.nextInt(1200) - 100;
+            float top = mRandom.nextInt(1200) - 100;
+            float right = left + mRandom.nextInt(300);
+            float bottom = top + mRandom.nextInt(300);
+            assertArrayEquals(bruteForceRect(left, top, right, bottom), findInRect(left, top, right, bottom));
+        }
+    }
+
+    @Test
+    public void updateFollowsMovedAndRemovedParticles() {
+        for (int i = 0; i < COUNT; i++) {
+            mBuffer.mCurrentX[i] = mRandom.nextInt(1000);
+            mBuffer.mCurrentY[i] = mRandom.nextInt(1000);
+        }
+        for (int i = 0; i < COUNT / 2; i++) {
+            mBuffer.remove(mRandom.nextInt(mBuffer.mCount));
+        }
+        mGrid.update(mBuffer, REGIONS);
+        assertEquals(mBuffer.mCount, mGrid.size());
+        assertArrayEquals(bruteForceRadius(500, 500, 300), findInRadius(500, 500, 300));
+    }
+
+    @Test
+    public void resultIsLimitedByItsLength() {
+        int[] result = new int[5];
+        assertEquals(5, mGrid.findInRect(-1000, -1000, 2000, 2000, result));
+    }
+
+    private int[] findInRadius(float x, float y, float radius) {
+        int[] result = new int[COUNT];
+        return sorted(result, mGrid.findInRadius(x, y, radius, result));
+    }
+
+    private int[] findInRect(float left, float top, float right, float bottom) {
+        int[] result = new int[COUNT];
+        return sorted(result, mGrid.findInRect(left, top, right, bottom, result));
+    }
+
+    private static int[] sorted(int[] result, int count) {
+        int[] slots = Arrays.copyOf(result, count);
+        Arrays.sort(slots);
+        return slots;
+    }
+
+    private int[] bruteForceRadius(float x, float y, float radius) {
+        int[] result = new int[COUNT];
+        int found = 0;
+        for (int i = 0; i < mBuffer.mCount; i++) {
+            float dx = mBuffer.mCurrentX[i] + 8 - x;
+            float dy = mBuffer.mCurrentY[i] + 8 - y;
+            if (dx * dx + dy * dy <= radius * radius) {
+                result[found++] = i;
+            }
+        }
+        return Arrays.copyOf(result, found);
+    }
+
+    private int[] bruteForceRect(float left, float top, float right, float bottom) {
+        int[] result = new int[COUNT];
+        int found = 0;
+        for (int i = 0; i < mBuffer.mCount; i++) {
+            float x = mBuffer.mCurrentX[i] + 8;
+            float y = mBuffer.mCurrentY[i] + 8;
+            if (x >= left && x <= right && y >= top && y <= bottom) {
+                result[found++] = i;
+            }
+        }
+        return Arrays.copyOf(result, found);
+    }
+}
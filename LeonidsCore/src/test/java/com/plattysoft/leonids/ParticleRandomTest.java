@@ -0,0 +1,37 @@
+package com.plattysoft.leonids;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ParticleRandomTest {
+
+    @Test
+    public void sameSeedGivesTheSameSequence() {
+        ParticleRandom first = new ParticleRandom(7);
+        ParticleRandom second = new ParticleRandom(7);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(first.nextLong(), second.nextLong());
+            assertEquals(first.nextGaussian(), second.nextGaussian(), 0);
+        }
+    }
+
+    @Test
+    public void setSeedDiscardsThePendingGaussian() {
+        ParticleRandom reseeded = new ParticleRandom(1);
+        // The first call computes a pair and keeps the second value for the next call
+        reseeded.nextGaussian();
+        reseeded.setSeed(7);
+        ParticleRandom fresh = new ParticleRandom(7);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(fresh.nextGaussian(), reseeded.nextGaussian(), 0);
+        }
+    }
+
+    @Test
+    public void splitGeneratorsAreReproducible() {
+        ParticleRandom first = new ParticleRandom(3).split();
+        ParticleRandom second = new ParticleRandom(3).split();
+        assertEquals(first.nextLong(), second.nextLong());
+    }
+}
@@ -0,0 +1,135 @@
+package com.plattysoft.leonids;
+
+import com.plattysoft.leonids.initializers.AccelerationInitializer;
+import com.plattysoft.leonids.initializers.RotationSpeedInitializer;
+import com.plattysoft.leonids.initializers.ScaleInitializer;
+import com.plattysoft.leonids.initializers.SpeedModuleAndRangeInitializer;
+import com.plattysoft.leonids.modifiers.BaseAlphaModifier;
+import com.plattysoft.leonids.modifiers.ParticleInterpolator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class ParticleSimulationTest {
+
+    private static final int MAX_PARTICLES = 10000;
+    private static final long TIME_TO_LIVE = 1000;
+    private static final long FRAME_TIME = 16;
+
+    private ExecutorService mExecutor;
+
+    @Before
+    public void setUp() {
+        mExecutor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void spawnOnExecutorMatchesSerial() {
+        ParticleSimulation serial = create();
+        ParticleSimulation parallel = create();
+        parallel.setSpawnExecutor(mExecutor);
+        serial.oneShot(MAX_PARTICLES);
+        parallel.oneShot(MAX_PARTICLES);
+        serial.update(FRAME_TIME);
+        parallel.update(FRAME_TIME);
+        assertSameSnapshot(serial.getPublished(), parallel.getPublished());
+    }
+
+    @Test
+    public void stepOnExecutorMatchesSerial() {
+        ParticleSimulation serial = create();
+        ParticleSimulation parallel = create();
+        parallel.setUpdateExecutor(mExecutor);
+        parallel.setParallelThreshold(0);
+        serial.startEmitting(5000, -1);
+        parallel.startEmitting(5000, -1);
+        for (long time = 0; time < 2 * TIME_TO_LIVE; time += FRAME_TIME) {
+            serial.update(time);
+            parallel.update(time);
+            assertSameSnapshot(serial.getPublished(), parallel.getPublished());
+        }
+    }
+
+    @Test
+    public void spawnSpreadOverStepsMatchesSingleSpawn() {
+        ParticleSimulation single = create();
+        ParticleSimulation spread = create();
+        spread.setSpawnChunksPerStep(2);
+        single.oneShot(MAX_PARTICLES);
+        spread.oneShot(MAX_PARTICLES);
+        assertEquals(2 * ParticleSimulation.SPAWN_CHUNK_SIZE, spread.getActiveCount());
+        for (long time = FRAME_TIME; time <= 5 * FRAME_TIME; time += FRAME_TIME) {
+            single.update(time);
+            spread.update(time);
+        }
+        assertEquals(single.getActiveCount(), spread.getActiveCount());
+        // The later chunks start later, but the particles have the same initial values
+        assertArrayEquals(sortedScales(single.getPublished()), sortedScales(spread.getPublished()), 0f);
+    }
+
+    @Test
+    public void rejectedChunksRunOnTheCallingThread() {
+        ParticleSimulation simulation = create();
+        simulation.setSpawnExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        });
+        try {
+            simulation.oneShot(MAX_PARTICLES);
+            fail("The rejection should be thrown");
+        } catch (RejectedExecutionException e) {
+            // Expected, once all the particles are initialized
+        }
+        assertEquals(MAX_PARTICLES, simulation.getActiveCount());
+        assertEquals(MAX_PARTICLES, simulation.getSpawnCount());
+    }
+
+    private static ParticleSimulation create() {
+        ParticleSimulation simulation = new ParticleSimulation(MAX_PARTICLES, TIME_TO_LIVE).setSeed(42);
+        for (int i = 0; i < MAX_PARTICLES; i++) {
+            simulation.addParticle(new Particle(new AtlasRegion(0, 0, 32, 32)));
+        }
+        simulation.usePackedStorage();
+        simulation.addInitializer(new SpeedModuleAndRangeInitializer(0.1f, 0.3f, 0, 360))
+                .addInitializer(new RotationSpeedInitializer(90, 180))
+                .addInitializer(new AccelerationInitializer(0.0001f, 0.0001f, 90, 90))
+                .addInitializer(new ScaleInitializer(0.5f, 1.5f))
+                .addModifier(new BaseAlphaModifier(255, 0, 0, TIME_TO_LIVE, ParticleInterpolator.LINEAR));
+        simulation.setEmitterRange(400, 600, 400, 600);
+        return simulation;
+    }
+
+    private static void assertSameSnapshot(ParticleSnapshot expected, ParticleSnapshot actual) {
+        assertEquals(expected.mCount, actual.mCount);
+        int count = expected.mCount;
+        assertArrayEquals(Arrays.copyOf(expected.mX, count), Arrays.copyOf(actual.mX, count), 0f);
+        assertArrayEquals(Arrays.copyOf(expected.mY, count), Arrays.copyOf(actual.mY, count), 0f);
+        assertArrayEquals(Arrays.copyOf(expected.mRotation, count), Arrays.copyOf(actual.mRotation, count), 0f);
+        assertArrayEquals(Arrays.copyOf(expected.mScale, count), Arrays.copyOf(actual.mScale, count), 0f);
+        assertArrayEquals(Arrays.copyOf(expected.mAlpha, count), Arrays.copyOf(actual.mAlpha, count));
+    }
+
+    private static float[] sortedScales(ParticleSnapshot snapshot) {
+        float[] scales = Arrays.copyOf(snapshot.mScale, snapshot.mCount);
+        Arrays.sort(scales);
+        return scales;
+    }
+}
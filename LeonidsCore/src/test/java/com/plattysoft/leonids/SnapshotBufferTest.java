@@ -0,0 +1,43 @@
+package com.plattysoft.leonids;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class SnapshotBufferTest {
+
+    @Test
+    public void readerGetsTheLatestPublished() {
+        SnapshotBuffer buffer = new SnapshotBuffer(1);
+        ParticleSnapshot first = buffer.getBack();
+        buffer.publish();
+        ParticleSnapshot second = buffer.getBack();
+        buffer.publish();
+        assertNotSame(first, second);
+        assertSame(second, buffer.getFront());
+    }
+
+    @Test
+    public void readerKeepsItsSnapshotUntilANewOneIsPublished() {
+        SnapshotBuffer buffer = new SnapshotBuffer(1);
+        ParticleSnapshot published = buffer.getBack();
+        buffer.publish();
+        assertSame(published, buffer.getFront());
+        assertSame(published, buffer.getFront());
+        // The writer never gets the snapshot being read
+        assertNotSame(published, buffer.getBack());
+    }
+
+    @Test
+    public void writerNeverGetsTheFrontSnapshot() {
+        SnapshotBuffer buffer = new SnapshotBuffer(1);
+        for (int i = 0; i < 10; i++) {
+            buffer.publish();
+            ParticleSnapshot front = buffer.getFront();
+            assertNotSame(front, buffer.getBack());
+            buffer.publish();
+            assertNotSame(front, buffer.getBack());
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.plattysoft.leonids.modifiers;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class BakedInterpolatorTest {
+
+    private static final ParticleInterpolator CUBIC = new ParticleInterpolator() {
+        @Override
+        public float getInterpolation(float input) {
+            return input * input * input;
+        }
+    };
+
+    @Test
+    public void staysCloseToTheCurve() {
+        BakedInterpolator baked = new BakedInterpolator(CUBIC);
+        for (int i = 0; i <= 1000; i++) {
+            float input = i / 1000f;
+            assertEquals(CUBIC.getInterpolation(input), baked.getInterpolation(input), 0.0001f);
+        }
+    }
+
+    @Test
+    public void isExactOnTheSamples() {
+        BakedInterpolator baked = new BakedInterpolator(CUBIC, 4);
+        assertEquals(0.125f, baked.getInterpolation(0.5f), 0f);
+        assertEquals(1f, baked.getInterpolation(1f), 0f);
+    }
+
+    @Test
+    public void clampsTheInput() {
+        BakedInterpolator baked = new BakedInterpolator(CUBIC);
+        assertEquals(0f, baked.getInterpolation(-1f), 0f);
+        assertEquals(1f, baked.getInterpolation(2f), 0f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void needsOneSample() {
+        new BakedInterpolator(CUBIC, 0);
+    }
+}
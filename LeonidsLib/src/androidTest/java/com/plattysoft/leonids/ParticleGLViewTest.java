@@ -0,0 +1,120 @@
+package com.plattysoft.leonids;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLSurface;
+import android.opengl.GLES20;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.SdkSuppress;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Draws with the renderer of ParticleGLView into an offscreen surface and reads the pixels back.
+ * Run on an emulator with software rendering it checks the shaders and the draw calls on a
+ * software OpenGL stack, see the README.
+ */
+@RunWith(AndroidJUnit4.class)
+@SdkSuppress(minSdkVersion = 17)
+public class ParticleGLViewTest {
+
+    private static final int SIZE = 64;
+    private static final int PARTICLE_SIZE = 16;
+
+    private EGLDisplay mDisplay;
+    private EGLContext mContext;
+    private EGLSurface mSurface;
+
+    @Before
+    public void setUp() {
+        mDisplay = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+        int[] version = new int[2];
+        assertTrue(EGL14.eglInitialize(mDisplay, version, 0, version, 1));
+        int[] attributes = {
+                EGL14.EGL_RED_SIZE, 8,
+                EGL14.EGL_GREEN_SIZE, 8,
+                EGL14.EGL_BLUE_SIZE, 8,
+                EGL14.EGL_ALPHA_SIZE, 8,
+                EGL14.EGL_RENDERABLE_TYPE, EGL14.EGL_OPENGL_ES2_BIT,
+                EGL14.EGL_SURFACE_TYPE, EGL14.EGL_PBUFFER_BIT,
+                EGL14.EGL_NONE
+        };
+        EGLConfig[] configs = new EGLConfig[1];
+        int[] count = new int[1];
+        assertTrue(EGL14.eglChooseConfig(mDisplay, attributes, 0, configs, 0, 1, count, 0));
+        assertTrue(count[0] > 0);
+        int[] contextAttributes = {EGL14.EGL_CONTEXT_CLIENT_VERSION, 2, EGL14.EGL_NONE};
+        mContext = EGL14.eglCreateContext(mDisplay, configs[0], EGL14.EGL_NO_CONTEXT, contextAttributes, 0);
+        int[] surfaceAttributes = {EGL14.EGL_WIDTH, SIZE, EGL14.EGL_HEIGHT, SIZE, EGL14.EGL_NONE};
+        mSurface = EGL14.eglCreatePbufferSurface(mDisplay, configs[0], surfaceAttributes, 0);
+        assertTrue(EGL14.eglMakeCurrent(mDisplay, mSurface, mSurface, mContext));
+    }
+
+    @After
+    public void tearDown() {
+        EGL14.eglMakeCurrent(mDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
+        EGL14.eglDestroySurface(mDisplay, mSurface);
+        EGL14.eglDestroyContext(mDisplay, mContext);
+        EGL14.eglTerminate(mDisplay);
+    }
+
+    @Test
+    public void drawsTheParticlesOfTheSnapshot() {
+        Bitmap atlas = Bitmap.createBitmap(PARTICLE_SIZE, PARTICLE_SIZE, Bitmap.Config.ARGB_8888);
+        atlas.eraseColor(Color.WHITE);
+        Particle particle = new Particle(new AtlasRegion(0, 0, PARTICLE_SIZE, PARTICLE_SIZE));
+        particle.mCurrentX = 8;
+        particle.mCurrentY = 8;
+        SnapshotBuffer snapshots = new SnapshotBuffer(1);
+        snapshots.getBack().set(Collections.singletonList(particle));
+        snapshots.publish();
+
+        ParticleGLView view = createView();
+        view.setSnapshots(snapshots, atlas);
+        view.onSurfaceCreated(null, null);
+        view.onSurfaceChanged(null, SIZE, SIZE);
+        view.onDrawFrame(null);
+        assertEquals(GLES20.GL_NO_ERROR, GLES20.glGetError());
+
+        ByteBuffer pixels = ByteBuffer.allocateDirect(SIZE * SIZE * 4).order(ByteOrder.nativeOrder());
+        GLES20.glReadPixels(0, 0, SIZE, SIZE, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, pixels);
+        // The particle covers from 8 to 24 on both axes, and the rest is cleared
+        assertEquals(255, alphaAt(pixels, 16, 16));
+        assertEquals(0, alphaAt(pixels, 40, 40));
+        assertEquals(0, alphaAt(pixels, 4, 4));
+    }
+
+    private static ParticleGLView createView() {
+        final ParticleGLView[] view = new ParticleGLView[1];
+        // A SurfaceView needs a looper, the renderer is then called on this thread
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                view[0] = new ParticleGLView(InstrumentationRegistry.getTargetContext(), false);
+            }
+        });
+        return view[0];
+    }
+
+    /**
+     * @param y from the top, like the views, while the rows of OpenGL go from the bottom
+     */
+    private static int alphaAt(ByteBuffer pixels, int x, int y) {
+        return pixels.get(((SIZE - 1 - y) * SIZE + x) * 4 + 3) & 0xff;
+    }
+}
@@ -0,0 +1,103 @@
+package com.plattysoft.leonids;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.view.View;
+import android.widget.FrameLayout;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs the frames of a ParticleSystem the way the app does: the scheduler updates it and the
+ * ParticleField draws it on a Canvas. Once it is warmed up, a frame must not allocate anything,
+ * not in the simulation nor in the update, the scheduler or the drawing.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ParticleSystemAllocationTest {
+
+    private static final int SIZE = 500;
+    private static final int MAX_PARTICLES = 200;
+    private static final long TIME_TO_LIVE = 1000;
+    private static final long FRAME_NANOS = 16000000;
+    // Long enough for the first particles to die and be emitted again
+    private static final int WARM_UP_FRAMES = 200;
+    private static final int MEASURED_FRAMES = 500;
+
+    @Test
+    public void framesDoNotAllocate() {
+        assertEquals(0, countAllocations(false));
+    }
+
+    @Test
+    public void packedFramesDoNotAllocate() {
+        assertEquals(0, countAllocations(true));
+    }
+
+    private static int countAllocations(final boolean packed) {
+        final int[] allocations = new int[1];
+        // All at once on the main thread, so the Choreographer does not update the system in between
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                allocations[0] = runFrames(packed);
+            }
+        });
+        return allocations[0];
+    }
+
+    private static int runFrames(boolean packed) {
+        Context context = InstrumentationRegistry.getTargetContext();
+        FrameLayout parent = new FrameLayout(context);
+        Bitmap image = Bitmap.createBitmap(16, 16, Bitmap.Config.ARGB_8888);
+        image.eraseColor(Color.WHITE);
+        Drawable[] drawables = new Drawable[]{new BitmapDrawable(context.getResources(), image)};
+        ParticleSystem ps = new ParticleSystem(parent, MAX_PARTICLES, drawables, TIME_TO_LIVE)
+                .setSpeedRange(0.1f, 0.3f)
+                .setRotationSpeedRange(90, 180)
+                .setFadeOut(200);
+        if (packed) {
+            ps.usePackedStorage();
+        }
+        layout(parent);
+        ps.emit(SIZE / 2, SIZE / 2, MAX_PARTICLES);
+        // The view the particles are drawn on is added when emitting
+        layout(parent);
+        View field = parent.getChildAt(0);
+        Canvas canvas = new Canvas(Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888));
+        ParticleScheduler scheduler = ParticleScheduler.getInstance();
+        long frameTime = System.nanoTime();
+        ParticleTrace.startAllocationCounting();
+        try {
+            for (int i = 0; i < WARM_UP_FRAMES; i++) {
+                frameTime += FRAME_NANOS;
+                scheduler.doFrame(frameTime);
+                field.draw(canvas);
+            }
+            int start = ParticleTrace.getThreadAllocations();
+            for (int i = 0; i < MEASURED_FRAMES; i++) {
+                frameTime += FRAME_NANOS;
+                scheduler.doFrame(frameTime);
+                field.draw(canvas);
+            }
+            return ParticleTrace.getThreadAllocations() - start;
+        } finally {
+            ParticleTrace.stopAllocationCounting();
+            ps.cancel();
+        }
+    }
+
+    private static void layout(View view) {
+        int spec = View.MeasureSpec.makeMeasureSpec(SIZE, View.MeasureSpec.EXACTLY);
+        view.measure(spec, spec);
+        view.layout(0, 0, SIZE, SIZE);
+    }
+}
@@ -0,0 +1,22 @@
+package com.plattysoft.leonids;
+
+import android.view.animation.Interpolator;
+
+import com.plattysoft.leonids.modifiers.ParticleInterpolator;
+
+/**
+ * Adapts an Android Interpolator, so it can be used by the modifiers.
+ */
+public class AndroidInterpolator implements ParticleInterpolator {
+
+    private final Interpolator mInterpolator;
+
+    public AndroidInterpolator(Interpolator interpolator) {
+        mInterpolator = interpolator;
+    }
+
+    @Override
+    public float getInterpolation(float input) {
+        return mInterpolator.getInterpolation(input);
+    }
+}
@@ -0,0 +1,187 @@
+package com.plattysoft.leonids;
+
+import android.graphics.Bitmap;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process wide cache of the bitmaps created from drawable resources, shared by all the
+ * ParticleSystems. Entries are keyed by resource id and screen density, and the least recently
+ * used ones are evicted when the size goes over the budget.
+ * <p>
+ * The atlases built from several resources, or from animations, are kept too, keyed by the list of
+ * resources and the density, so the systems created with the same resources share them instead of
+ * filling a new atlas each. They count towards the same budget and are evicted after the bitmaps,
+ * but their hits, misses and evictions are counted apart from the ones of the bitmaps.
+ */
+public class BitmapCache {
+
+    private static final int DEFAULT_MAX_SIZE = 4 * 1024 * 1024; // 4MB
+
+    private static BitmapCache sInstance;
+
+    private final LinkedHashMap<Long, Bitmap> mBitmaps = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, AtlasEntry> mAtlases = new LinkedHashMap<>(16, 0.75f, true);
+    private int mMaxSize = DEFAULT_MAX_SIZE;
+    private int mSize;
+    private int mHitCount;
+    private int mMissCount;
+    private int mEvictionCount;
+    private int mAtlasHitCount;
+    private int mAtlasMissCount;
+    private int mAtlasEvictionCount;
+
+    public static synchronized BitmapCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new BitmapCache();
+        }
+        return sInstance;
+    }
+
+    private BitmapCache() {
+    }
+
+    /**
+     * Sets the budget of the cache, evicting entries if needed.
+     *
+     * @param maxSize maximum size of the cached bitmaps in bytes
+     */
+    public synchronized void setMaxSize(int maxSize) {
+        mMaxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    public synchronized int getMaxSize() {
+        return mMaxSize;
+    }
+
+    public synchronized Bitmap get(int resId, int densityDpi) {
+        Bitmap bitmap = mBitmaps.get(getKey(resId, densityDpi));
+        if (bitmap != null) {
+            mHitCount++;
+        } else {
+            mMissCount++;
+        }
+        return bitmap;
+    }
+
+    public synchronized void put(int resId, int densityDpi, Bitmap bitmap) {
+        Bitmap previous = mBitmaps.put(getKey(resId, densityDpi), bitmap);
+        if (previous != null) {
+            mSize -= getSize(previous);
+        }
+        mSize += getSize(bitmap);
+        trimToSize(mMaxSize);
+    }
+
+    synchronized AtlasEntry getAtlas(int[] resIds, int densityDpi) {
+        AtlasEntry entry = mAtlases.get(getKey(resIds, densityDpi));
+        if (entry != null) {
+            mAtlasHitCount++;
+        } else {
+            mAtlasMissCount++;
+        }
+        return entry;
+    }
+
+    synchronized void putAtlas(int[] resIds, int densityDpi, AtlasEntry entry) {
+        AtlasEntry previous = mAtlases.put(getKey(resIds, densityDpi), entry);
+        if (previous != null) {
+            mSize -= getSize(previous.mAtlas.getBitmap());
+        }
+        mSize += getSize(entry.mAtlas.getBitmap());
+        trimToSize(mMaxSize);
+    }
+
+    /**
+     * Removes all the entries. The bitmaps are not recycled since they may still be in use.
+     */
+    public synchronized void clear() {
+        mBitmaps.clear();
+        mAtlases.clear();
+        mSize = 0;
+    }
+
+    public synchronized int getSize() {
+        return mSize;
+    }
+
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized int getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    public synchronized int getAtlasHitCount() {
+        return mAtlasHitCount;
+    }
+
+    public synchronized int getAtlasMissCount() {
+        return mAtlasMissCount;
+    }
+
+    public synchronized int getAtlasEvictionCount() {
+        return mAtlasEvictionCount;
+    }
+
+    private void trimToSize(int maxSize) {
+        // Iteration goes from the least to the most recently used
+        Iterator<Map.Entry<Long, Bitmap>> iterator = mBitmaps.entrySet().iterator();
+        while (mSize > maxSize && iterator.hasNext()) {
+            Bitmap bitmap = iterator.next().getValue();
+            iterator.remove();
+            mSize -= getSize(bitmap);
+            mEvictionCount++;
+        }
+        // The atlases are only rebuilt from the bitmaps, so they go last
+        Iterator<Map.Entry<String, AtlasEntry>> atlases = mAtlases.entrySet().iterator();
+        while (mSize > maxSize && atlases.hasNext()) {
+            AtlasEntry entry = atlases.next().getValue();
+            atlases.remove();
+            mSize -= getSize(entry.mAtlas.getBitmap());
+            mAtlasEvictionCount++;
+        }
+    }
+
+    private static long getKey(int resId, int densityDpi) {
+        return ((long) densityDpi << 32) | (resId & 0xFFFFFFFFL);
+    }
+
+    private static String getKey(int[] resIds, int densityDpi) {
+        return densityDpi + Arrays.toString(resIds);
+    }
+
+    private static int getSize(Bitmap bitmap) {
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    /**
+     * An atlas with the regions of each resource, and the timing of the ones that are animations.
+     * It is immutable once built, so it can be shared by any number of systems.
+     */
+    static class AtlasEntry {
+
+        final TextureAtlas mAtlas;
+        // The frames of each resource, a single one for the ones that are not animations
+        final AtlasRegion[][] mFrames;
+        // Null for the resources that are not animations
+        final int[][] mFrameDurations;
+        final boolean[] mOneShot;
+
+        AtlasEntry(TextureAtlas atlas, AtlasRegion[][] frames, int[][] frameDurations, boolean[] oneShot) {
+            mAtlas = atlas;
+            mFrames = frames;
+            mFrameDurations = frameDurations;
+            mOneShot = oneShot;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.plattysoft.leonids;
+
+import com.plattysoft.leonids.initializers.ParticleInitializer;
+import com.plattysoft.leonids.modifiers.ParticleModifier;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Configuration of a ParticleSystem, created with {@link ParticleSystem#createPreset()}.
+ * Creating a ParticleSystem from a preset does not load drawables, build the atlas nor configure
+ * initializers and modifiers again, and the particles are reused from the systems created from the
+ * same preset that already finished.
+ * <p>
+ * Presets can be shared between threads. The initializers and modifiers are not copied, the same
+ * instances are used by all the systems created from the preset, so changing one, for example
+ * moving an AttractorForce with setPosition, changes every one of those systems. Create a preset
+ * per effect that needs its own.
+ * <p>
+ * Up to {@link #DEFAULT_MAX_RECYCLED} finished storages are kept for reuse, the rest are left to
+ * the garbage collector, see {@link #setMaxRecycled(int)}.
+ */
+public class EmitterPreset {
+
+    public static final int DEFAULT_MAX_RECYCLED = 2;
+
+    final int mMaxParticles;
+    final long mTimeToLive;
+    final TextureAtlas mAtlas;
+    final List<ParticleInitializer> mInitializers;
+    final List<ParticleModifier> mModifiers;
+    // Particles to copy when new storage is needed, null for packed storage
+    private final Particle[] mPrototypes;
+    // Images used by packed storage, null for pooled particles
+    final AtlasRegion[] mRegions;
+    final boolean mIntegratedMotion;
+
+    private final ArrayList<ParticleStorage> mRecycled = new ArrayList<>();
+    private int mMaxRecycled = DEFAULT_MAX_RECYCLED;
+
+    EmitterPreset(int maxParticles, long timeToLive, TextureAtlas atlas, Particle[] prototypes,
+                  AtlasRegion[] regions, boolean integratedMotion, List<ParticleInitializer> initializers,
+                  List<ParticleModifier> modifiers) {
+        mMaxParticles = maxParticles;
+        mTimeToLive = timeToLive;
+        mAtlas = atlas;
+        mPrototypes = prototypes;
+        mRegions = regions;
+        mIntegratedMotion = integratedMotion;
+        mInitializers = Collections.unmodifiableList(new ArrayList<>(initializers));
+        mModifiers = Collections.unmodifiableList(new ArrayList<>(modifiers));
+    }
+
+    /**
+     * Sets how many storages of finished systems are kept to be reused. Each one holds the
+     * particles of maxParticles, so a high value keeps the memory of the largest burst of
+     * concurrent systems for as long as the preset lives.
+     *
+     * @param maxRecycled the number of storages to keep, 0 to not reuse them
+     * @return This preset
+     */
+    public EmitterPreset setMaxRecycled(int maxRecycled) {
+        if (maxRecycled < 0) {
+            throw new IllegalArgumentException("The number of recycled storages can not be negative");
+        }
+        synchronized (mRecycled) {
+            mMaxRecycled = maxRecycled;
+            while (mRecycled.size() > maxRecycled) {
+                mRecycled.remove(mRecycled.size() - 1);
+            }
+        }
+        return this;
+    }
+
+    Particle[] getPrototypes() {
+        return mPrototypes;
+    }
+
+    boolean isPacked() {
+        return mRegions != null;
+    }
+
+    /**
+     * Returns the storage of a finished system if there is any, or creates a new one.
+     */
+    ParticleStorage obtainStorage() {
+        synchronized (mRecycled) {
+            if (!mRecycled.isEmpty()) {
+                return mRecycled.remove(mRecycled.size() - 1);
+            }
+        }
+        if (isPacked()) {
+            return new ParticleStorage(new ParticlePool(0), new ParticleBuffer(mMaxParticles), mMaxParticles);
+        }
+        ParticlePool pool = new ParticlePool(mPrototypes.length);
+        for (Particle prototype : mPrototypes) {
+            pool.release(prototype.copy());
+        }
+        return new ParticleStorage(pool, null, mMaxParticles);
+    }
+
+    /**
+     * Gives back the storage of a system, all its particles must be back in the pool. It is dropped
+     * if enough storages are already kept.
+     */
+    void recycle(ParticleStorage storage) {
+        synchronized (mRecycled) {
+            if (mRecycled.size() < mMaxRecycled) {
+                mRecycled.add(storage);
+            }
+        }
+    }
+}
@@ -1,15 +1,46 @@
 package com.plattysoft.leonids;
 
 import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
 import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.Shader;
+import android.os.Build;
 import android.util.AttributeSet;
 import android.view.View;
 
-import java.util.ArrayList;
+/**
+ * Draws the particles on a Canvas, it is the default renderer and the fallback of the OpenGL one.
+ */
+class ParticleField extends View implements ParticleRenderer {
 
-class ParticleField extends View {
+    // Indices are shorts, so a single draw call can not go over this amount of particles
+    private static final int MAX_PARTICLES_PER_BATCH = Short.MAX_VALUE / 4;
 
-    private ArrayList<Particle> mParticles;
+    private SnapshotBuffer mSnapshots;
+    private Bitmap mAtlas;
+    private final Matrix mMatrix = new Matrix();
+    private final Paint mPaint = new Paint();
+    private final Rect mSource = new Rect();
+    private final RectF mDestination = new RectF();
+    // Area covered by the particles on the last invalidation, it has to be redrawn to erase them
+    private final Rect mLastBounds = new Rect();
+    private final Rect mDirty = new Rect();
+    private final Rect mClip = new Rect();
+    private volatile long mLastDrawNanos;
+    // Only written by the drawing thread
+    private volatile int mDrawAllocations;
+
+    // Batched drawing, all the particles share the atlas so they go in a single draw call
+    private Paint mBatchPaint;
+    private float[] mVertices;
+    private float[] mTexCoords;
+    private int[] mColors;
+    private short[] mIndices;
 
     public ParticleField(Context context, AttributeSet attrs, int defStyle) {
         super(context, attrs, defStyle);
@@ -23,18 +54,186 @@ class ParticleField extends View {
         super(context);
     }
 
-    public void setParticles(ArrayList<Particle> particles) {
-        mParticles = particles;
+    @Override
+    public void setSnapshots(SnapshotBuffer snapshots, Bitmap atlas) {
+        mSnapshots = snapshots;
+        mAtlas = atlas;
+        mBatchPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        mBatchPaint.setShader(new BitmapShader(atlas, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP));
+    }
+
+    @Override
+    public void requestRender(ParticleSnapshot published) {
+        int width = getWidth();
+        int height = getHeight();
+        if (!published.intersects(0, 0, width, height)) {
+            if (!mLastBounds.isEmpty()) {
+                // Erase the particles of the last frame
+                postInvalidate(mLastBounds.left, mLastBounds.top, mLastBounds.right, mLastBounds.bottom);
+                mLastBounds.setEmpty();
+            }
+            // Nothing is visible, there is no need to draw
+            return;
+        }
+        mDirty.set((int) Math.floor(published.mLeft), (int) Math.floor(published.mTop),
+                (int) Math.ceil(published.mRight), (int) Math.ceil(published.mBottom));
+        // Only the part of the particles inside of the view needs to be drawn
+        mDirty.intersect(0, 0, width, height);
+        int left = mDirty.left;
+        int top = mDirty.top;
+        int right = mDirty.right;
+        int bottom = mDirty.bottom;
+        mDirty.union(mLastBounds);
+        postInvalidate(mDirty.left, mDirty.top, mDirty.right, mDirty.bottom);
+        mLastBounds.set(left, top, right, bottom);
+    }
+
+    @Override
+    public long getLastDrawNanos() {
+        return mLastDrawNanos;
+    }
+
+    @Override
+    public int getDrawAllocations() {
+        return mDrawAllocations;
     }
 
     @Override
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
-        // Draw all the particles
-        synchronized (mParticles) {
-            for (int i = 0; i < mParticles.size(); i++) {
-                mParticles.get(i).draw(canvas);
+        long start = System.nanoTime();
+        int allocations = ParticleTrace.getThreadAllocations();
+        ParticleTrace.beginSection(ParticleTrace.DRAW);
+        try {
+            drawParticles(canvas);
+        } finally {
+            ParticleTrace.endSection();
+            mLastDrawNanos = System.nanoTime() - start;
+            mDrawAllocations += ParticleTrace.getThreadAllocations() - allocations;
+        }
+    }
+
+    private void drawParticles(Canvas canvas) {
+        // Draw the latest published state of the particles
+        ParticleSnapshot s = mSnapshots.getFront();
+        if (!canvas.getClipBounds(mClip)) {
+            // Nothing can be drawn
+            return;
+        }
+        if (canDrawBatched(canvas)) {
+            drawBatched(canvas, s);
+        } else {
+            drawOneByOne(canvas, s);
+        }
+    }
+
+    private boolean canDrawBatched(Canvas canvas) {
+        // drawVertices is only supported by the hardware renderer since Android 10
+        return !canvas.isHardwareAccelerated() || Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q;
+    }
+
+    private void drawOneByOne(Canvas canvas, ParticleSnapshot s) {
+        for (int i = 0; i < s.mCount; i++) {
+            if (isOutsideClip(s, i)) {
+                continue;
+            }
+            AtlasRegion region = s.mRegion[i];
+            int halfWidth = region.mWidth / 2;
+            int halfHeight = region.mHeight / 2;
+            mMatrix.reset();
+            mMatrix.postRotate(s.mRotation[i], halfWidth, halfHeight);
+            mMatrix.postScale(s.mScale[i], s.mScale[i], halfWidth, halfHeight);
+            mMatrix.postTranslate(s.mX[i], s.mY[i]);
+            mPaint.setAlpha(s.mAlpha[i]);
+            mSource.set(region.mLeft, region.mTop, region.mLeft + region.mWidth, region.mTop + region.mHeight);
+            mDestination.set(0, 0, region.mWidth, region.mHeight);
+            int saveCount = canvas.save();
+            canvas.concat(mMatrix);
+            canvas.drawBitmap(mAtlas, mSource, mDestination, mPaint);
+            canvas.restoreToCount(saveCount);
+        }
+    }
+
+    private void drawBatched(Canvas canvas, ParticleSnapshot s) {
+        ensureBatchCapacity(Math.min(s.mX.length, MAX_PARTICLES_PER_BATCH));
+        int quads = 0;
+        for (int i = 0; i < s.mCount; i++) {
+            if (isOutsideClip(s, i)) {
+                continue;
+            }
+            AtlasRegion region = s.mRegion[i];
+            float halfWidth = region.mWidth / 2;
+            float halfHeight = region.mHeight / 2;
+            // Same transformation as the Matrix: rotate and scale around the center, then translate
+            double angle = Math.toRadians(s.mRotation[i]);
+            float cos = (float) Math.cos(angle) * s.mScale[i];
+            float sin = (float) Math.sin(angle) * s.mScale[i];
+            float centerX = s.mX[i] + halfWidth;
+            float centerY = s.mY[i] + halfHeight;
+            int v = quads * 8;
+            putVertex(v, centerX, centerY, -halfWidth, -halfHeight, cos, sin);
+            putVertex(v + 2, centerX, centerY, halfWidth, -halfHeight, cos, sin);
+            putVertex(v + 4, centerX, centerY, halfWidth, halfHeight, cos, sin);
+            putVertex(v + 6, centerX, centerY, -halfWidth, halfHeight, cos, sin);
+            int right = region.mLeft + region.mWidth;
+            int bottom = region.mTop + region.mHeight;
+            mTexCoords[v] = region.mLeft;
+            mTexCoords[v + 1] = region.mTop;
+            mTexCoords[v + 2] = right;
+            mTexCoords[v + 3] = region.mTop;
+            mTexCoords[v + 4] = right;
+            mTexCoords[v + 5] = bottom;
+            mTexCoords[v + 6] = region.mLeft;
+            mTexCoords[v + 7] = bottom;
+            // The vertex colors modulate the bitmap, white with the particle alpha
+            int color = (s.mAlpha[i] << 24) | 0x00FFFFFF;
+            int c = quads * 4;
+            mColors[c] = color;
+            mColors[c + 1] = color;
+            mColors[c + 2] = color;
+            mColors[c + 3] = color;
+            quads++;
+            if (quads == MAX_PARTICLES_PER_BATCH) {
+                drawQuads(canvas, quads);
+                quads = 0;
             }
         }
+        if (quads > 0) {
+            drawQuads(canvas, quads);
+        }
+    }
+
+    private boolean isOutsideClip(ParticleSnapshot s, int i) {
+        return s.isOutside(i, mClip.left, mClip.top, mClip.right, mClip.bottom);
+    }
+
+    private void putVertex(int index, float centerX, float centerY, float dx, float dy, float cos, float sin) {
+        mVertices[index] = centerX + dx * cos - dy * sin;
+        mVertices[index + 1] = centerY + dx * sin + dy * cos;
+    }
+
+    private void drawQuads(Canvas canvas, int quads) {
+        canvas.drawVertices(Canvas.VertexMode.TRIANGLES, quads * 8, mVertices, 0, mTexCoords, 0,
+                mColors, 0, mIndices, 0, quads * 6, mBatchPaint);
+    }
+
+    private void ensureBatchCapacity(int particles) {
+        if (mIndices != null && mIndices.length >= particles * 6) {
+            return;
+        }
+        mVertices = new float[particles * 8];
+        mTexCoords = new float[particles * 8];
+        mColors = new int[particles * 4];
+        mIndices = new short[particles * 6];
+        // Two triangles per quad, the indices never change
+        for (int i = 0; i < particles; i++) {
+            short first = (short) (i * 4);
+            mIndices[i * 6] = first;
+            mIndices[i * 6 + 1] = (short) (first + 1);
+            mIndices[i * 6 + 2] = (short) (first + 2);
+            mIndices[i * 6 + 3] = first;
+            mIndices[i * 6 + 4] = (short) (first + 2);
+            mIndices[i * 6 + 5] = (short) (first + 3);
+        }
     }
 }
@@ -0,0 +1,318 @@
+package com.plattysoft.leonids;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.content.pm.ConfigurationInfo;
+import android.graphics.Bitmap;
+import android.graphics.PixelFormat;
+import android.opengl.GLES20;
+import android.opengl.GLSurfaceView;
+import android.opengl.GLUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.opengles.GL10;
+
+/**
+ * Draws the particles with OpenGL ES 2.0 on its own surface, so the updates do not invalidate nor
+ * redraw the view hierarchy. The quads of all the particles are written to a vertex buffer straight
+ * from the snapshot and drawn with one call per batch, on the rendering thread of the view.
+ */
+class ParticleGLView extends GLSurfaceView implements ParticleRenderer, GLSurfaceView.Renderer {
+
+    // Indices are shorts, so a single draw call can not go over this amount of particles
+    private static final int MAX_PARTICLES_PER_BATCH = Short.MAX_VALUE / 4;
+    // x, y, u, v and alpha
+    private static final int FLOATS_PER_VERTEX = 5;
+    private static final int BYTES_PER_FLOAT = 4;
+    private static final int STRIDE = FLOATS_PER_VERTEX * BYTES_PER_FLOAT;
+
+    private static final String VERTEX_SHADER =
+            "uniform vec2 uViewport;\n" +
+            "attribute vec2 aPosition;\n" +
+            "attribute vec2 aTexCoord;\n" +
+            "attribute float aAlpha;\n" +
+            "varying vec2 vTexCoord;\n" +
+            "varying float vAlpha;\n" +
+            "void main() {\n" +
+            "  vec2 clip = aPosition / uViewport * 2.0 - 1.0;\n" +
+            "  gl_Position = vec4(clip.x, -clip.y, 0.0, 1.0);\n" +
+            "  vTexCoord = aTexCoord;\n" +
+            "  vAlpha = aAlpha;\n" +
+            "}\n";
+
+    // The atlas is premultiplied, so the whole color is multiplied by the alpha of the particle
+    private static final String FRAGMENT_SHADER =
+            "precision mediump float;\n" +
+            "uniform sampler2D uAtlas;\n" +
+            "varying vec2 vTexCoord;\n" +
+            "varying float vAlpha;\n" +
+            "void main() {\n" +
+            "  gl_FragColor = texture2D(uAtlas, vTexCoord) * vAlpha;\n" +
+            "}\n";
+
+    // Set from the main thread, read from the rendering thread
+    private volatile SnapshotBuffer mSnapshots;
+    private volatile Bitmap mAtlas;
+
+    private int mProgram;
+    private int mPositionHandle;
+    private int mTexCoordHandle;
+    private int mAlphaHandle;
+    private int mViewportHandle;
+    private int mAtlasHandle;
+    private final int[] mHandles = new int[2];
+    private int mVertexBuffer;
+    private int mIndexBuffer;
+    private int mTexture;
+    private int mWidth;
+    private int mHeight;
+    private float mAtlasWidth;
+    private float mAtlasHeight;
+
+    private float[] mVertices;
+    private FloatBuffer mVertexData;
+    private int mBatchCapacity;
+    private boolean mDrawnParticles;
+    private volatile long mLastDrawNanos;
+    // Only written by the drawing thread
+    private volatile int mDrawAllocations;
+
+    /**
+     * OpenGL ES 2.0 is needed, otherwise the particles are drawn on a Canvas.
+     */
+    static boolean isSupported(Context context) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        ConfigurationInfo info = activityManager.getDeviceConfigurationInfo();
+        return info != null && info.reqGlEsVersion >= 0x20000;
+    }
+
+    /**
+     * @param onTop whether the surface goes on top of the whole window, dialogs included, or under
+     *              it as a media overlay, see {@link ParticleSystem#useGLRendering(boolean)}
+     */
+    public ParticleGLView(Context context, boolean onTop) {
+        super(context);
+        setEGLContextClientVersion(2);
+        // Transparent surface, the particles are drawn over whatever is below it
+        setEGLConfigChooser(8, 8, 8, 8, 0, 0);
+        getHolder().setFormat(PixelFormat.TRANSLUCENT);
+        if (onTop) {
+            setZOrderOnTop(true);
+        } else {
+            setZOrderMediaOverlay(true);
+        }
+        setRenderer(this);
+        setRenderMode(RENDERMODE_WHEN_DIRTY);
+    }
+
+    @Override
+    public void setSnapshots(SnapshotBuffer snapshots, Bitmap atlas) {
+        mSnapshots = snapshots;
+        mAtlas = atlas;
+    }
+
+    @Override
+    public void requestRender(ParticleSnapshot published) {
+        boolean visible = published.intersects(0, 0, getWidth(), getHeight());
+        // One more frame is needed after the last visible particle is gone, to clear the surface
+        if (visible || mDrawnParticles) {
+            requestRender();
+        }
+        mDrawnParticles = visible;
+    }
+
+    @Override
+    public long getLastDrawNanos() {
+        return mLastDrawNanos;
+    }
+
+    @Override
+    public int getDrawAllocations() {
+        return mDrawAllocations;
+    }
+
+    @Override
+    public void onSurfaceCreated(GL10 unused, EGLConfig config) {
+        // The context is new, everything needs to be created again
+        mProgram = createProgram(VERTEX_SHADER, FRAGMENT_SHADER);
+        mPositionHandle = GLES20.glGetAttribLocation(mProgram, "aPosition");
+        mTexCoordHandle = GLES20.glGetAttribLocation(mProgram, "aTexCoord");
+        mAlphaHandle = GLES20.glGetAttribLocation(mProgram, "aAlpha");
+        mViewportHandle = GLES20.glGetUniformLocation(mProgram, "uViewport");
+        mAtlasHandle = GLES20.glGetUniformLocation(mProgram, "uAtlas");
+
+        GLES20.glGenBuffers(2, mHandles, 0);
+        mVertexBuffer = mHandles[0];
+        mIndexBuffer = mHandles[1];
+        mBatchCapacity = 0;
+
+        Bitmap atlas = mAtlas;
+        GLES20.glGenTextures(1, mHandles, 0);
+        mTexture = mHandles[0];
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTexture);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        // Needed for textures that are not a power of two
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, atlas, 0);
+        mAtlasWidth = atlas.getWidth();
+        mAtlasHeight = atlas.getHeight();
+
+        GLES20.glDisable(GLES20.GL_DEPTH_TEST);
+        GLES20.glEnable(GLES20.GL_BLEND);
+        GLES20.glBlendFunc(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+        GLES20.glClearColor(0, 0, 0, 0);
+    }
+
+    @Override
+    public void onSurfaceChanged(GL10 unused, int width, int height) {
+        mWidth = width;
+        mHeight = height;
+        GLES20.glViewport(0, 0, width, height);
+    }
+
+    @Override
+    public void onDrawFrame(GL10 unused) {
+        long start = System.nanoTime();
+        int allocations = ParticleTrace.getThreadAllocations();
+        ParticleTrace.beginSection(ParticleTrace.DRAW);
+        try {
+            drawParticles();
+        } finally {
+            ParticleTrace.endSection();
+            mLastDrawNanos = System.nanoTime() - start;
+            mDrawAllocations += ParticleTrace.getThreadAllocations() - allocations;
+        }
+    }
+
+    private void drawParticles() {
+        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+        ParticleSnapshot s = mSnapshots.getFront();
+        if (s.mCount == 0) {
+            return;
+        }
+        ensureBatchCapacity(Math.min(s.mX.length, MAX_PARTICLES_PER_BATCH));
+
+        GLES20.glUseProgram(mProgram);
+        GLES20.glUniform2f(mViewportHandle, mWidth, mHeight);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTexture);
+        GLES20.glUniform1i(mAtlasHandle, 0);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mVertexBuffer);
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mIndexBuffer);
+
+        int quads = 0;
+        for (int i = 0; i < s.mCount; i++) {
+            if (s.isOutside(i, 0, 0, mWidth, mHeight)) {
+                continue;
+            }
+            AtlasRegion region = s.mRegion[i];
+            float halfWidth = region.mWidth / 2;
+            float halfHeight = region.mHeight / 2;
+            // Same transformation as the Canvas: rotate and scale around the center, then translate
+            double angle = Math.toRadians(s.mRotation[i]);
+            float cos = (float) Math.cos(angle) * s.mScale[i];
+            float sin = (float) Math.sin(angle) * s.mScale[i];
+            float centerX = s.mX[i] + halfWidth;
+            float centerY = s.mY[i] + halfHeight;
+            float left = region.mLeft / mAtlasWidth;
+            float top = region.mTop / mAtlasHeight;
+            float right = (region.mLeft + region.mWidth) / mAtlasWidth;
+            float bottom = (region.mTop + region.mHeight) / mAtlasHeight;
+            float alpha = s.mAlpha[i] / 255f;
+            int v = quads * 4 * FLOATS_PER_VERTEX;
+            putVertex(v, centerX, centerY, -halfWidth, -halfHeight, cos, sin, left, top, alpha);
+            putVertex(v + FLOATS_PER_VERTEX, centerX, centerY, halfWidth, -halfHeight, cos, sin, right, top, alpha);
+            putVertex(v + 2 * FLOATS_PER_VERTEX, centerX, centerY, halfWidth, halfHeight, cos, sin, right, bottom, alpha);
+            putVertex(v + 3 * FLOATS_PER_VERTEX, centerX, centerY, -halfWidth, halfHeight, cos, sin, left, bottom, alpha);
+            quads++;
+            if (quads == mBatchCapacity) {
+                drawQuads(quads);
+                quads = 0;
+            }
+        }
+        if (quads > 0) {
+            drawQuads(quads);
+        }
+    }
+
+    private void putVertex(int index, float centerX, float centerY, float dx, float dy, float cos, float sin,
+                           float u, float v, float alpha) {
+        mVertices[index] = centerX + dx * cos - dy * sin;
+        mVertices[index + 1] = centerY + dx * sin + dy * cos;
+        mVertices[index + 2] = u;
+        mVertices[index + 3] = v;
+        mVertices[index + 4] = alpha;
+    }
+
+    private void drawQuads(int quads) {
+        int floats = quads * 4 * FLOATS_PER_VERTEX;
+        mVertexData.clear();
+        mVertexData.put(mVertices, 0, floats);
+        mVertexData.position(0);
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, floats * BYTES_PER_FLOAT, mVertexData, GLES20.GL_STREAM_DRAW);
+        GLES20.glEnableVertexAttribArray(mPositionHandle);
+        GLES20.glVertexAttribPointer(mPositionHandle, 2, GLES20.GL_FLOAT, false, STRIDE, 0);
+        GLES20.glEnableVertexAttribArray(mTexCoordHandle);
+        GLES20.glVertexAttribPointer(mTexCoordHandle, 2, GLES20.GL_FLOAT, false, STRIDE, 2 * BYTES_PER_FLOAT);
+        GLES20.glEnableVertexAttribArray(mAlphaHandle);
+        GLES20.glVertexAttribPointer(mAlphaHandle, 1, GLES20.GL_FLOAT, false, STRIDE, 4 * BYTES_PER_FLOAT);
+        GLES20.glDrawElements(GLES20.GL_TRIANGLES, quads * 6, GLES20.GL_UNSIGNED_SHORT, 0);
+    }
+
+    private void ensureBatchCapacity(int particles) {
+        if (mBatchCapacity >= particles) {
+            return;
+        }
+        mBatchCapacity = particles;
+        mVertices = new float[particles * 4 * FLOATS_PER_VERTEX];
+        mVertexData = ByteBuffer.allocateDirect(mVertices.length * BYTES_PER_FLOAT)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        // Two triangles per quad, the indices never change so they are uploaded only once
+        ShortBuffer indices = ByteBuffer.allocateDirect(particles * 6 * 2)
+                .order(ByteOrder.nativeOrder()).asShortBuffer();
+        for (int i = 0; i < particles; i++) {
+            short first = (short) (i * 4);
+            indices.put(first).put((short) (first + 1)).put((short) (first + 2))
+                    .put(first).put((short) (first + 2)).put((short) (first + 3));
+        }
+        indices.position(0);
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mIndexBuffer);
+        GLES20.glBufferData(GLES20.GL_ELEMENT_ARRAY_BUFFER, particles * 6 * 2, indices, GLES20.GL_STATIC_DRAW);
+    }
+
+    private int createProgram(String vertexSource, String fragmentSource) {
+        int vertexShader = loadShader(GLES20.GL_VERTEX_SHADER, vertexSource);
+        int fragmentShader = loadShader(GLES20.GL_FRAGMENT_SHADER, fragmentSource);
+        int program = GLES20.glCreateProgram();
+        GLES20.glAttachShader(program, vertexShader);
+        GLES20.glAttachShader(program, fragmentShader);
+        GLES20.glLinkProgram(program);
+        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, mHandles, 0);
+        if (mHandles[0] == 0) {
+            String log = GLES20.glGetProgramInfoLog(program);
+            GLES20.glDeleteProgram(program);
+            throw new IllegalStateException("Could not link the particle program: " + log);
+        }
+        return program;
+    }
+
+    private int loadShader(int type, String source) {
+        int shader = GLES20.glCreateShader(type);
+        GLES20.glShaderSource(shader, source);
+        GLES20.glCompileShader(shader);
+        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, mHandles, 0);
+        if (mHandles[0] == 0) {
+            String log = GLES20.glGetShaderInfoLog(shader);
+            GLES20.glDeleteShader(shader);
+            throw new IllegalStateException("Could not compile the particle shader: " + log);
+        }
+        return shader;
+    }
+}
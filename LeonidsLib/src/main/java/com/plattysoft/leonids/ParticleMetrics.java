@@ -0,0 +1,24 @@
+package com.plattysoft.leonids;
+
+/**
+ * What a ParticleSystem costs, reported to a {@link ParticleMetricsListener} after every frame.
+ * The times are the ones of the last frame, the rates and counts the ones of the last second.
+ */
+public class ParticleMetrics {
+
+    // Time spent updating the simulation, in nanoseconds
+    public long mUpdateNanos;
+    // Time spent drawing the particles, in nanoseconds. The drawing happens after the update, so
+    // it is the one of the previous frame. With OpenGL it is the time to issue the draw calls
+    public long mDrawNanos;
+    public int mActiveParticles;
+    public int mPooledParticles;
+    public int mSpawnsPerSecond;
+    public int mDeathsPerSecond;
+    // Frames that came more than one and a half frame periods after the previous one
+    public int mLateFrames;
+    // Objects allocated while updating and drawing this system, measured with the allocation
+    // counting of android.os.Debug. It includes the allocations of the Canvas, the Paint and the
+    // modifiers, but not the ones of the metrics listener
+    public int mAllocations;
+}
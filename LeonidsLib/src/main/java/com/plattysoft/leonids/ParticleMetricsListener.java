@@ -0,0 +1,13 @@
+package com.plattysoft.leonids;
+
+/**
+ * Receives the metrics of a ParticleSystem, on the main thread after every frame.
+ */
+public interface ParticleMetricsListener {
+
+    /**
+     * @param system  the particle system that was updated
+     * @param metrics the metrics, the same object is reused for every frame so it must not be kept
+     */
+    void onMetrics(ParticleSystem system, ParticleMetrics metrics);
+}
@@ -0,0 +1,30 @@
+package com.plattysoft.leonids;
+
+import android.graphics.Bitmap;
+
+/**
+ * A view that draws the snapshots published by a ParticleSystem.
+ */
+interface ParticleRenderer {
+
+    void setSnapshots(SnapshotBuffer snapshots, Bitmap atlas);
+
+    /**
+     * Called from the update once a new snapshot has been published.
+     *
+     * @param published the snapshot that was published, it must not be kept
+     */
+    void requestRender(ParticleSnapshot published);
+
+    /**
+     * Time it took to draw the last frame, in nanoseconds. It can be called from any thread.
+     */
+    long getLastDrawNanos();
+
+    /**
+     * Objects allocated while drawing since the renderer was created, only counted while the
+     * allocation counting is enabled, see {@link ParticleTrace#startAllocationCounting()}. It can
+     * be called from any thread.
+     */
+    int getDrawAllocations();
+}
@@ -0,0 +1,176 @@
+package com.plattysoft.leonids;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+
+/**
+ * Process wide scheduler that updates all the running particle systems once per display frame.
+ * On devices with Choreographer (API 16+) the ticks are aligned with vsync and use the real frame
+ * time; older devices fall back to a main thread Handler firing at a fixed interval.
+ * <p>
+ * All the methods must be called from the main thread.
+ */
+class ParticleScheduler {
+
+    private static final long NANOS_PER_MILLISECOND = 1000000;
+    private static final long FALLBACK_FRAME_INTERVAL = 16;
+
+    private static ParticleScheduler sInstance;
+
+    private final ArrayList<ParticleSystem> mSystems = new ArrayList<>();
+    // Copy of the systems used while dispatching, so they can unregister during their update
+    private ParticleSystem[] mDispatching = new ParticleSystem[0];
+    private final FrameCallback mFrameCallback;
+    private long mMinFrameInterval;
+    private long mLastFrameTimeNanos;
+    private boolean mScheduled;
+
+    public static ParticleScheduler getInstance() {
+        if (sInstance == null) {
+            sInstance = new ParticleScheduler();
+        }
+        return sInstance;
+    }
+
+    private ParticleScheduler() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            mFrameCallback = new ChoreographerFrameCallback(this);
+        } else {
+            mFrameCallback = new HandlerFrameCallback(this);
+        }
+    }
+
+    /**
+     * Limits the frequency of the updates, 0 means updating on every frame.
+     *
+     * @param minFrameInterval minimum time between updates in milliseconds
+     */
+    public void setMinFrameInterval(long minFrameInterval) {
+        mMinFrameInterval = minFrameInterval;
+    }
+
+    public long getMinFrameInterval() {
+        return mMinFrameInterval;
+    }
+
+    public void register(ParticleSystem ps) {
+        if (mSystems.contains(ps)) {
+            return;
+        }
+        mSystems.add(ps);
+        if (!mScheduled) {
+            mScheduled = true;
+            mLastFrameTimeNanos = 0;
+            mFrameCallback.schedule();
+        }
+    }
+
+    public void unregister(ParticleSystem ps) {
+        mSystems.remove(ps);
+        if (mSystems.isEmpty() && mScheduled) {
+            mScheduled = false;
+            mFrameCallback.unschedule();
+        }
+    }
+
+    public boolean isRegistered(ParticleSystem ps) {
+        return mSystems.contains(ps);
+    }
+
+    /**
+     * Updates the registered systems, called by the frame callback.
+     */
+    void doFrame(long frameTimeNanos) {
+        if (!mScheduled) {
+            return;
+        }
+        // Schedule the next frame first, so it is not lost if a system fails
+        mFrameCallback.schedule();
+        if (mLastFrameTimeNanos != 0 &&
+                frameTimeNanos - mLastFrameTimeNanos < mMinFrameInterval * NANOS_PER_MILLISECOND) {
+            return;
+        }
+        mLastFrameTimeNanos = frameTimeNanos;
+        int count = mSystems.size();
+        if (mDispatching.length < count) {
+            mDispatching = new ParticleSystem[count];
+        }
+        for (int i = 0; i < count; i++) {
+            mDispatching[i] = mSystems.get(i);
+        }
+        for (int i = 0; i < count; i++) {
+            ParticleSystem ps = mDispatching[i];
+            mDispatching[i] = null;
+            // It may have been unregistered by one of the previous systems
+            if (mSystems.contains(ps)) {
+                ps.onFrame(frameTimeNanos);
+            }
+        }
+    }
+
+    private interface FrameCallback {
+
+        void schedule();
+
+        void unschedule();
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static class ChoreographerFrameCallback implements FrameCallback, Choreographer.FrameCallback {
+
+        private final ParticleScheduler mScheduler;
+
+        public ChoreographerFrameCallback(ParticleScheduler scheduler) {
+            mScheduler = scheduler;
+        }
+
+        @Override
+        public void schedule() {
+            // Never pending twice, and the removed callback record is reused by the post
+            Choreographer choreographer = Choreographer.getInstance();
+            choreographer.removeFrameCallback(this);
+            choreographer.postFrameCallback(this);
+        }
+
+        @Override
+        public void unschedule() {
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mScheduler.doFrame(frameTimeNanos);
+        }
+    }
+
+    private static class HandlerFrameCallback implements FrameCallback, Runnable {
+
+        private final ParticleScheduler mScheduler;
+        private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+        public HandlerFrameCallback(ParticleScheduler scheduler) {
+            mScheduler = scheduler;
+        }
+
+        @Override
+        public void schedule() {
+            mHandler.removeCallbacks(this);
+            mHandler.postDelayed(this, FALLBACK_FRAME_INTERVAL);
+        }
+
+        @Override
+        public void unschedule() {
+            mHandler.removeCallbacks(this);
+        }
+
+        @Override
+        public void run() {
+            mScheduler.doFrame(System.nanoTime());
+        }
+    }
+}
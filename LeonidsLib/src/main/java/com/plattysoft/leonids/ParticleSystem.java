@@ -1,10 +1,8 @@
 package com.plattysoft.leonids;
 
-import android.animation.Animator;
-import android.animation.Animator.AnimatorListener;
-import android.animation.ValueAnimator;
 import android.app.Activity;
 import android.content.Context;
+import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.drawable.AnimationDrawable;
@@ -14,6 +12,7 @@ import android.util.DisplayMetrics;
 import android.view.Gravity;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.WindowManager;
 import android.view.animation.Interpolator;
 import android.view.animation.LinearInterpolator;
 
@@ -25,52 +24,68 @@ import com.plattysoft.leonids.initializers.ScaleInitializer;
 import com.plattysoft.leonids.initializers.SpeedModuleAndRangeInitializer;
 import com.plattysoft.leonids.initializers.SpeeddByComponentsInitializer;
 import com.plattysoft.leonids.modifiers.AlphaModifier;
+import com.plattysoft.leonids.modifiers.BakedInterpolator;
 import com.plattysoft.leonids.modifiers.ParticleModifier;
 
-import java.lang.ref.WeakReference;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
 import java.util.Random;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.Executor;
 
 public class ParticleSystem {
 
-    private static long TIMER_TASK_INTERVAL = 33; // Default 30fps
-    private final ArrayList<Particle> mActiveParticles = new ArrayList<>();
-    private final ParticleTimerTask mTimerTask = new ParticleTimerTask(this);
+    private static final long NANOS_PER_MILLISECOND = 1000000;
+    private static final long NANOS_PER_SECOND = 1000000000;
+    private static final int DEFAULT_MAX_STEPS_PER_FRAME = 4;
+    private static final int FLOOR_DEPTH = 1000;
     private ViewGroup mParentView;
     private final int mMaxParticles;
-    private final Random mRandom;
-    private ParticleField mDrawingView;
-    private final List<Particle> mParticles;
+    private View mDrawingView;
+    private ParticleRenderer mRenderer;
+    private boolean mUseGLRendering;
+    private boolean mGLOnTop;
     private final long mTimeToLive;
     private long mCurrentTime = 0;
-    private float mParticlesPerMillisecond;
-    private int mActivatedParticles;
-    private long mEmittingTime;
-    private final List<ParticleModifier> mModifiers;
-    private final List<ParticleInitializer> mInitializers;
-    private ValueAnimator mAnimator;
-    private Timer mTimer;
+    private final ParticleSimulation mSimulation;
+    private Interpolator mInterpolator;
+    private long mAnimationTime;
+    private long mFirstFrameTimeNanos;
+    private long mStartTime;
     private final float mDpToPxScale;
     private final int[] mParentLocation;
-
-    private int mEmitterXMin;
-    private int mEmitterXMax;
-    private int mEmitterYMin;
-    private int mEmitterYMax;
+    // Reused to read the location of the emitter, which can be updated on every frame
+    private final int[] mEmitterLocation = new int[2];
+    private ParticleColliders mColliders;
+    private float mCollisionRestitution = 0.5f;
+    private float mCollisionFriction = 0.1f;
+    private final ArrayList<ViewCollider> mViewColliders = new ArrayList<>();
+    // Reused to read the bounds of the views the particles collide with, on every frame
+    private final int[] mColliderLocation = new int[2];
+    private final EmitterPreset mPreset;
+    private TextureAtlas mAtlas;
+
+    private ParticleMetricsListener mMetricsListener;
+    private final ParticleMetrics mMetrics = new ParticleMetrics();
+    private long mFramePeriodNanos;
+    private long mLastFrameTimeNanos;
+    // Start of the second the rates are measured on, and the totals at that moment
+    private long mMetricsWindowStart;
+    private long mWindowSpawnCount;
+    private long mWindowDeathCount;
+    private int mWindowAllocations;
+    // Allocations of the renderer already counted
+    private int mDrawAllocations;
+    private int mWindowLateFrames;
 
     private final Random random = new Random();
 
     /**
-     * Sets the frames per second of <em>ALL</em> ParticleSystems
+     * Limits the frames per second of <em>ALL</em> ParticleSystems. By default they are updated
+     * on every display frame.
      *
      * @param fps the desired frames per second
      */
     public static void setFPS(double fps) {
-        TIMER_TASK_INTERVAL = Math.round(1000 / fps);
+        ParticleScheduler.getInstance().setMinFrameInterval(Math.round(1000 / fps));
     }
 
     /**
@@ -99,6 +114,9 @@ public class ParticleSystem {
 
     /**
      * Utility constructor that receives a Drawable
+     * <p>
+     * The images are packed into a new atlas for every system. To create systems often, like on
+     * every tap, use the resource ids, whose atlas is cached, or an {@link EmitterPreset}.
      *
      * @param a            The parent activity
      * @param maxParticles The maximum number of particles
@@ -111,6 +129,9 @@ public class ParticleSystem {
 
     /**
      * Utility constructor that receives a Bitmap
+     * <p>
+     * The images are packed into a new atlas for every system. To create systems often, like on
+     * every tap, use the resource ids, whose atlas is cached, or an {@link EmitterPreset}.
      *
      * @param a            The parent activity
      * @param maxParticles The maximum number of particles
@@ -123,6 +144,9 @@ public class ParticleSystem {
 
     /**
      * Utility constructor that receives an AnimationDrawable
+     * <p>
+     * The images are packed into a new atlas for every system. To create systems often, like on
+     * every tap, use the resource ids, whose atlas is cached, or an {@link EmitterPreset}.
      *
      * @param a            The parent activity
      * @param maxParticles The maximum number of particles
@@ -161,6 +185,9 @@ public class ParticleSystem {
 
     /**
      * Utility constructor that receives a Drawable
+     * <p>
+     * The images are packed into a new atlas for every system. To create systems often, like on
+     * every tap, use the resource ids, whose atlas is cached, or an {@link EmitterPreset}.
      *
      * @param a            The parent activity
      * @param maxParticles The maximum number of particles
@@ -174,6 +201,9 @@ public class ParticleSystem {
 
     /**
      * Utility constructor that receives a Bitmap
+     * <p>
+     * The images are packed into a new atlas for every system. To create systems often, like on
+     * every tap, use the resource ids, whose atlas is cached, or an {@link EmitterPreset}.
      *
      * @param a            The parent activity
      * @param maxParticles The maximum number of particles
@@ -183,15 +213,23 @@ public class ParticleSystem {
      */
     public ParticleSystem(Activity a, int maxParticles, Bitmap[] bitmaps, long timeToLive, int parentViewId) {
         this((ViewGroup) a.findViewById(parentViewId), maxParticles, timeToLive);
+        TextureAtlas.Builder builder = new TextureAtlas.Builder();
+        AtlasRegion[] regions = new AtlasRegion[bitmaps.length];
+        for (int i = 0; i < bitmaps.length; i++) {
+            regions[i] = builder.add(bitmaps[i]);
+        }
+        mAtlas = builder.build();
         for (int i = 0; i < mMaxParticles; i++) {
-            int randomIndex = random.nextInt(bitmaps.length);
-            Bitmap bitmap = bitmaps[randomIndex];
-            mParticles.add(new Particle(bitmap));
+            int randomIndex = random.nextInt(regions.length);
+            mSimulation.addParticle(new Particle(regions[randomIndex]));
         }
     }
 
     /**
      * Utility constructor that receives an AnimationDrawable
+     * <p>
+     * The images are packed into a new atlas for every system. To create systems often, like on
+     * every tap, use the resource ids, whose atlas is cached, or an {@link EmitterPreset}.
      *
      * @param a            The parent activity
      * @param maxParticles The maximum number of particles
@@ -201,11 +239,18 @@ public class ParticleSystem {
      */
     public ParticleSystem(Activity a, int maxParticles, AnimationDrawable[] animations, long timeToLive, int parentViewId) {
         this((ViewGroup) a.findViewById(parentViewId), maxParticles, timeToLive);
+        // All the frames of all the animations go to the same atlas
+        TextureAtlas.Builder builder = new TextureAtlas.Builder();
+        AtlasRegion[][] frames = new AtlasRegion[animations.length][];
+        for (int i = 0; i < animations.length; i++) {
+            frames[i] = addFrames(builder, animations[i]);
+        }
+        mAtlas = builder.build();
         // Create the particles
         for (int i = 0; i < mMaxParticles; i++) {
             int randomIndex = random.nextInt(animations.length);
             AnimationDrawable animation = animations[randomIndex];
-            mParticles.add(new AnimatedParticle(animation));
+            mSimulation.addParticle(new AnimatedParticle(frames[randomIndex], getFrameDurations(animation), animation.isOneShot()));
         }
     }
 
@@ -219,7 +264,7 @@ public class ParticleSystem {
      */
     public ParticleSystem(ViewGroup parentView, int maxParticles, int drawableResId, long timeToLive) {
         this(parentView, maxParticles, timeToLive);
-        setParticles(maxParticles, getDrawables(parentView.getContext(), new int[]{drawableResId}));
+        setParticles(parentView.getContext(), maxParticles, new int[]{drawableResId});
     }
 
     /**
@@ -232,11 +277,14 @@ public class ParticleSystem {
      */
     public ParticleSystem(ViewGroup parentView, int maxParticles, int[] drawableResIds, long timeToLive) {
         this(parentView, maxParticles, timeToLive);
-        setParticles(maxParticles, getDrawables(parentView.getContext(), drawableResIds));
+        setParticles(parentView.getContext(), maxParticles, drawableResIds);
     }
 
     /**
      * Creates a particle system with the given parameters
+     * <p>
+     * The images are packed into a new atlas for every system. To create systems often, like on
+     * every tap, use the resource ids, whose atlas is cached, or an {@link EmitterPreset}.
      *
      * @param parentView   The parent view group
      * @param drawables    The drawables to use as particles
@@ -248,20 +296,44 @@ public class ParticleSystem {
         setParticles(maxParticles, drawables);
     }
 
+    /**
+     * Creates a particle system from a preset, it is cheap since the images, the configuration and
+     * the particles are shared with the other systems created from the same preset.
+     *
+     * @param parentView The parent view group
+     * @param preset     The configuration of the particle system
+     */
+    public ParticleSystem(ViewGroup parentView, EmitterPreset preset) {
+        this(parentView, preset.mMaxParticles, preset.mTimeToLive, preset);
+        mAtlas = preset.mAtlas;
+        mSimulation.setPackedRegions(preset.mRegions);
+        mSimulation.setIntegratedMotion(preset.mIntegratedMotion);
+        for (ParticleInitializer initializer : preset.mInitializers) {
+            mSimulation.addInitializer(initializer);
+        }
+        for (ParticleModifier modifier : preset.mModifiers) {
+            mSimulation.addModifier(modifier);
+        }
+    }
+
     private ParticleSystem(ViewGroup parentView, int maxParticles, long timeToLive) {
-        mRandom = new Random();
+        this(parentView, maxParticles, timeToLive, null);
+    }
+
+    private ParticleSystem(ViewGroup parentView, int maxParticles, long timeToLive, EmitterPreset preset) {
         mParentLocation = new int[2];
 
         setParentViewGroup(parentView);
 
-        mModifiers = new ArrayList<>();
-        mInitializers = new ArrayList<>();
-
         mMaxParticles = maxParticles;
-        // Create the particles
-
-        mParticles = new ArrayList<>();
         mTimeToLive = timeToLive;
+        mPreset = preset;
+        // Systems created from a preset take the particles from it when they start
+        if (mPreset == null) {
+            mSimulation = new ParticleSimulation(maxParticles, timeToLive);
+        } else {
+            mSimulation = new ParticleSimulation(maxParticles, timeToLive, null);
+        }
 
         DisplayMetrics displayMetrics = parentView.getContext().getResources().getDisplayMetrics();
         mDpToPxScale = (displayMetrics.xdpi / DisplayMetrics.DENSITY_DEFAULT);
@@ -273,12 +345,12 @@ public class ParticleSystem {
      * @param modifier modifier to be added to the ParticleSystem
      */
     public ParticleSystem addModifier(ParticleModifier modifier) {
-        mModifiers.add(modifier);
+        mSimulation.addModifier(modifier);
         return this;
     }
 
     public ParticleSystem setSpeedRange(float speedMin, float speedMax) {
-        mInitializers.add(new SpeedModuleAndRangeInitializer(dpToPx(speedMin), dpToPx(speedMax), 0, 360));
+        mSimulation.addInitializer(new SpeedModuleAndRangeInitializer(dpToPx(speedMin), dpToPx(speedMax), 0, 360));
         return this;
     }
 
@@ -300,7 +372,7 @@ public class ParticleSystem {
         while (maxAngle < minAngle) {
             maxAngle += 360;
         }
-        mInitializers.add(new SpeedModuleAndRangeInitializer(dpToPx(speedMin), dpToPx(speedMax), minAngle, maxAngle));
+        mSimulation.addInitializer(new SpeedModuleAndRangeInitializer(dpToPx(speedMin), dpToPx(speedMax), minAngle, maxAngle));
         return this;
     }
 
@@ -315,7 +387,7 @@ public class ParticleSystem {
      * @return This.
      */
     public ParticleSystem setSpeedByComponentsRange(float speedMinX, float speedMaxX, float speedMinY, float speedMaxY) {
-        mInitializers.add(new SpeeddByComponentsInitializer(dpToPx(speedMinX), dpToPx(speedMaxX),
+        mSimulation.addInitializer(new SpeeddByComponentsInitializer(dpToPx(speedMinX), dpToPx(speedMaxX),
                 dpToPx(speedMinY), dpToPx(speedMaxY)));
         return this;
     }
@@ -329,7 +401,7 @@ public class ParticleSystem {
      * @return This.
      */
     public ParticleSystem setInitialRotationRange(int minAngle, int maxAngle) {
-        mInitializers.add(new RotationInitializer(minAngle, maxAngle));
+        mSimulation.addInitializer(new RotationInitializer(minAngle, maxAngle));
         return this;
     }
 
@@ -342,7 +414,7 @@ public class ParticleSystem {
      * @return This.
      */
     public ParticleSystem setScaleRange(float minScale, float maxScale) {
-        mInitializers.add(new ScaleInitializer(minScale, maxScale));
+        mSimulation.addInitializer(new ScaleInitializer(minScale, maxScale));
         return this;
     }
 
@@ -354,7 +426,7 @@ public class ParticleSystem {
      * @return This.
      */
     public ParticleSystem setRotationSpeed(float rotationSpeed) {
-        mInitializers.add(new RotationSpeedInitializer(rotationSpeed, rotationSpeed));
+        mSimulation.addInitializer(new RotationSpeedInitializer(rotationSpeed, rotationSpeed));
         return this;
     }
 
@@ -367,7 +439,7 @@ public class ParticleSystem {
      * @return This.
      */
     public ParticleSystem setRotationSpeedRange(float minRotationSpeed, float maxRotationSpeed) {
-        mInitializers.add(new RotationSpeedInitializer(minRotationSpeed, maxRotationSpeed));
+        mSimulation.addInitializer(new RotationSpeedInitializer(minRotationSpeed, maxRotationSpeed));
         return this;
     }
 
@@ -384,7 +456,7 @@ public class ParticleSystem {
      * @return
      */
     public ParticleSystem setAccelerationModuleAndAndAngleRange(float minAcceleration, float maxAcceleration, int minAngle, int maxAngle) {
-        mInitializers.add(new AccelerationInitializer(dpToPx(minAcceleration), dpToPx(maxAcceleration),
+        mSimulation.addInitializer(new AccelerationInitializer(dpToPx(minAcceleration), dpToPx(maxAcceleration),
                 minAngle, maxAngle));
         return this;
     }
@@ -398,7 +470,7 @@ public class ParticleSystem {
      */
     public ParticleSystem addInitializer(ParticleInitializer initializer) {
         if (initializer != null) {
-            mInitializers.add(initializer);
+            mSimulation.addInitializer(initializer);
         }
         return this;
     }
@@ -414,7 +486,7 @@ public class ParticleSystem {
      * @return This.
      */
     public ParticleSystem setAcceleration(float acceleration, int angle) {
-        mInitializers.add(new AccelerationInitializer(acceleration, acceleration, angle, angle));
+        mSimulation.addInitializer(new AccelerationInitializer(acceleration, acceleration, angle, angle));
         return this;
     }
 
@@ -434,6 +506,453 @@ public class ParticleSystem {
         return this;
     }
 
+    /**
+     * Switches the particle system to packed storage: the state of the particles is kept in
+     * parallel primitive arrays instead of one Particle object each. This scales much better
+     * with big amounts of particles. Animated particles are not supported in this mode.
+     * It needs to be called before emitting.
+     *
+     * @return This.
+     */
+    public ParticleSystem usePackedStorage() {
+        if (mPreset != null) {
+            throw new IllegalStateException("The storage of a system created from a preset can not be changed");
+        }
+        mSimulation.usePackedStorage();
+        return this;
+    }
+
+    /**
+     * Moves the particles by integrating their velocity on every update, so force fields like
+     * {@link com.plattysoft.leonids.modifiers.AttractorForce} or
+     * {@link com.plattysoft.leonids.modifiers.VortexForce} can be added as modifiers. It switches
+     * to packed storage, so animated particles are not supported, and the particles are not
+     * retired when they leave the parent view. It needs to be called before emitting.
+     *
+     * @return This.
+     */
+    public ParticleSystem useIntegratedMotion() {
+        if (!mSimulation.isPacked()) {
+            usePackedStorage();
+        }
+        mSimulation.setIntegratedMotion(true);
+        return this;
+    }
+
+    /**
+     * Draws the particles with OpenGL ES 2.0 on their own surface instead of on a Canvas, so the
+     * updates do not redraw the view hierarchy. On devices without OpenGL ES 2.0 the Canvas is
+     * used. It needs to be called before emitting.
+     * <p>
+     * A surface does not follow the order of the views. On top of the window it is drawn over all
+     * of it, including the views that should cover the particles and the dialogs shown later.
+     * Otherwise it is a media overlay under the window, which is made transparent where the
+     * particles are, so the views under them are not shown; it fits a parent with nothing to show
+     * under the particles, like a container over a video or a game surface.
+     *
+     * @param onTop whether the surface goes on top of the whole window
+     * @return This.
+     */
+    public ParticleSystem useGLRendering(boolean onTop) {
+        mUseGLRendering = true;
+        mGLOnTop = onTop;
+        return this;
+    }
+
+    /**
+     * Returns the particles to the pool as soon as they leave the parent view and can not come
+     * back, instead of when their time to live expires. It assumes that the modifiers do not move
+     * the particles nor make them grow.
+     *
+     * @param retire whether to retire the particles that leave the parent view
+     * @return This.
+     */
+    public ParticleSystem setRetireOffscreenParticles(boolean retire) {
+        mSimulation.setRetireOffscreenParticles(retire);
+        return this;
+    }
+
+    /**
+     * With packed storage, the particles of big one shots are initialized in chunks on the given
+     * executor. The particles are the same as when they are initialized on the main thread.
+     *
+     * @param executor the executor, or null to initialize the particles on the main thread
+     * @return This.
+     */
+    public ParticleSystem setSpawnExecutor(Executor executor) {
+        mSimulation.setSpawnExecutor(executor);
+        return this;
+    }
+
+    /**
+     * With packed storage, spreads big one shots over several frames: the particles are
+     * initialized in chunks of {@link ParticleSimulation#SPAWN_CHUNK_SIZE} and only the given
+     * number of chunks is activated on each frame, so a burst does not make a single frame late.
+     * The particles are the same as when they are activated at once, but the ones of the later
+     * chunks start a few frames later.
+     *
+     * @param chunks chunks activated per frame, or per step with a simulation rate, 0 to activate
+     *               all the particles at once
+     * @return This.
+     */
+    public ParticleSystem setSpawnChunksPerFrame(int chunks) {
+        mSimulation.setSpawnChunksPerStep(chunks);
+        return this;
+    }
+
+    /**
+     * With packed storage, the updates with many particles are split in chunks that are stepped in
+     * parallel on the given executor, for example a fixed thread pool with one thread per core. The
+     * frame is drawn once all the chunks are done.
+     *
+     * @param executor the executor, or null to update the particles on the main thread
+     * @return This.
+     */
+    public ParticleSystem setUpdateExecutor(Executor executor) {
+        mSimulation.setUpdateExecutor(executor);
+        return this;
+    }
+
+    /**
+     * Sets the minimum number of particles for the updates to run in parallel, see
+     * {@link #setUpdateExecutor(Executor)}.
+     *
+     * @param minParticles the number of active particles, 4096 by default
+     * @return This.
+     */
+    public ParticleSystem setParallelUpdateThreshold(int minParticles) {
+        mSimulation.setParallelThreshold(minParticles);
+        return this;
+    }
+
+    /**
+     * Runs the simulation at a fixed rate instead of once per frame, and draws the particles
+     * interpolated between the last two steps. A low rate, like 20 steps per second, makes the
+     * updates cheaper while the drawing stays smooth at the refresh rate of the display. When frames
+     * are dropped the simulation catches up with up to 4 steps per frame.
+     *
+     * @param stepsPerSecond the rate of the simulation, 0 to update on every frame
+     * @return This.
+     */
+    public ParticleSystem setSimulationRate(float stepsPerSecond) {
+        return setSimulationRate(stepsPerSecond, DEFAULT_MAX_STEPS_PER_FRAME);
+    }
+
+    /**
+     * Runs the simulation at a fixed rate instead of once per frame, see
+     * {@link #setSimulationRate(float)}.
+     *
+     * @param stepsPerSecond   the rate of the simulation, 0 to update on every frame
+     * @param maxStepsPerFrame the maximum number of steps to catch up on a single frame, the rest
+     *                         of the time is skipped
+     * @return This.
+     */
+    public ParticleSystem setSimulationRate(float stepsPerSecond, int maxStepsPerFrame) {
+        mSimulation.setFixedTimestep(stepsPerSecond, maxStepsPerFrame);
+        return this;
+    }
+
+    /**
+     * Keeps the particles in a uniform grid over the parent view, so the ones near a point can be
+     * found with {@link #findParticlesInRadius(int, int, float, int[])} and
+     * {@link #findParticlesInRect(int, int, int, int, int[])} without checking all of them. The
+     * cells should be around the size of the usual queries.
+     *
+     * @param cellSize the size of the cells in pixels, 0 to remove the grid
+     * @return This.
+     */
+    public ParticleSystem setSpatialGridCellSize(float cellSize) {
+        mSimulation.setGridCellSize(cellSize);
+        return this;
+    }
+
+    /**
+     * Finds the particles whose center is at the given distance of a point or closer, as of the
+     * last update. It needs the spatial grid, see {@link #setSpatialGridCellSize(float)}.
+     *
+     * @param x      the horizontal position in window coordinates, like in updateEmitPoint
+     * @param y      the vertical position in window coordinates
+     * @param radius the distance in pixels
+     * @param result where the indices of the particles are written, see {@link #getParticleX(int)}
+     * @return the number of particles found, at most the length of the result
+     */
+    public int findParticlesInRadius(int x, int y, float radius, int[] result) {
+        return getGrid().findInRadius(x - mParentLocation[0], y - mParentLocation[1], radius, result);
+    }
+
+    /**
+     * Finds the particles whose center is inside the given rectangle, as of the last update. It
+     * needs the spatial grid, see {@link #setSpatialGridCellSize(float)}.
+     *
+     * @param left   the left edge in window coordinates, like in updateEmitPoint
+     * @param top    the top edge in window coordinates
+     * @param right  the right edge in window coordinates
+     * @param bottom the bottom edge in window coordinates
+     * @param result where the indices of the particles are written, see {@link #getParticleX(int)}
+     * @return the number of particles found, at most the length of the result
+     */
+    public int findParticlesInRect(int left, int top, int right, int bottom, int[] result) {
+        return getGrid().findInRect(left - mParentLocation[0], top - mParentLocation[1],
+                right - mParentLocation[0], bottom - mParentLocation[1], result);
+    }
+
+    /**
+     * Horizontal position of the center of a particle found by
+     * {@link #findParticlesInRadius(int, int, float, int[])} or
+     * {@link #findParticlesInRect(int, int, int, int, int[])}, in window coordinates. The indices
+     * are only valid until the next update, which moves the particles and reuses the indices of
+     * the ones that died.
+     *
+     * @param index an index written by the last query
+     * @return the position in pixels, as of the last update
+     */
+    public float getParticleX(int index) {
+        return getGrid().getX(index) + mParentLocation[0];
+    }
+
+    /**
+     * Vertical position of the center of a particle found by
+     * {@link #findParticlesInRadius(int, int, float, int[])} or
+     * {@link #findParticlesInRect(int, int, int, int, int[])}, in window coordinates. The indices
+     * are only valid until the next update.
+     *
+     * @param index an index written by the last query
+     * @return the position in pixels, as of the last update
+     */
+    public float getParticleY(int index) {
+        return getGrid().getY(index) + mParentLocation[1];
+    }
+
+    private ParticleGrid getGrid() {
+        ParticleGrid grid = mSimulation.getGrid();
+        if (grid == null) {
+            throw new IllegalStateException("The spatial grid is not enabled, call setSpatialGridCellSize first");
+        }
+        return grid;
+    }
+
+    /**
+     * Makes the particles bounce off a rectangle. It switches to integrated motion, see
+     * {@link #useIntegratedMotion()}, and needs to be called before emitting.
+     *
+     * @param left   the left edge in window coordinates, like in updateEmitPoint
+     * @param top    the top edge in window coordinates
+     * @param right  the right edge in window coordinates
+     * @param bottom the bottom edge in window coordinates
+     * @return This.
+     */
+    public ParticleSystem addCollisionRect(int left, int top, int right, int bottom) {
+        return addCollisionRect(left, top, right, bottom, false);
+    }
+
+    /**
+     * Makes the particles bounce off a rectangle, or die when they hit it. Bouncing switches to
+     * integrated motion, see {@link #useIntegratedMotion()}, and dying to packed storage. It needs
+     * to be called before emitting.
+     *
+     * @param left   the left edge in window coordinates, like in updateEmitPoint
+     * @param top    the top edge in window coordinates
+     * @param right  the right edge in window coordinates
+     * @param bottom the bottom edge in window coordinates
+     * @param kill   whether the particles die when they hit it instead of bouncing
+     * @return This.
+     */
+    public ParticleSystem addCollisionRect(int left, int top, int right, int bottom, boolean kill) {
+        getColliders(!kill).add(left - mParentLocation[0], top - mParentLocation[1],
+                right - mParentLocation[0], bottom - mParentLocation[1], kill);
+        return this;
+    }
+
+    /**
+     * Makes the particles bounce off a view. Its bounds are read on every frame, so it can move.
+     * It switches to integrated motion, see {@link #useIntegratedMotion()}, and needs to be called
+     * before emitting.
+     *
+     * @param view the view, it does not collide while it is not laid out or visible
+     * @return This.
+     */
+    public ParticleSystem addCollisionView(View view) {
+        return addCollisionView(view, false);
+    }
+
+    /**
+     * Makes the particles bounce off a view, or die when they hit it. Its bounds are read on every
+     * frame, so it can move. Bouncing switches to integrated motion, see
+     * {@link #useIntegratedMotion()}, and dying to packed storage. It needs to be called before
+     * emitting.
+     *
+     * @param view the view, it does not collide while it is not laid out or visible
+     * @param kill whether the particles die when they hit it instead of bouncing
+     * @return This.
+     */
+    public ParticleSystem addCollisionView(View view, boolean kill) {
+        ParticleColliders colliders = getColliders(!kill);
+        // Disabled until the view is laid out, its bounds are read on the next frame
+        int index = colliders.add(0, 0, 0, 0, kill);
+        colliders.setEnabled(index, false);
+        mViewColliders.add(new ViewCollider(view, index, false));
+        return this;
+    }
+
+    /**
+     * Makes the particles bounce off the bottom of the parent view, or die when they reach it.
+     * Bouncing switches to integrated motion, see {@link #useIntegratedMotion()}, and dying to
+     * packed storage. It needs to be called before emitting.
+     *
+     * @param kill whether the particles die when they reach it instead of bouncing
+     * @return This.
+     */
+    public ParticleSystem addCollisionFloor(boolean kill) {
+        ParticleColliders colliders = getColliders(!kill);
+        int index = colliders.add(0, 0, 0, 0, kill);
+        colliders.setEnabled(index, false);
+        mViewColliders.add(new ViewCollider(mParentView, index, true));
+        return this;
+    }
+
+    /**
+     * Sets how the particles bounce off the rectangles and views they collide with. It does not
+     * change the motion of the particles, that is done when a bouncing collider is added.
+     *
+     * @param restitution fraction of the speed into the surface that is kept, from 0 to 1
+     * @param friction    fraction of the speed along the surface that is lost on each hit, from 0 to 1
+     * @return This.
+     */
+    public ParticleSystem setCollisionBounce(float restitution, float friction) {
+        mCollisionRestitution = restitution;
+        mCollisionFriction = friction;
+        if (mColliders != null) {
+            mColliders.setBounce(restitution, friction);
+        }
+        return this;
+    }
+
+    /**
+     * Removes all the rectangles and views the particles collide with.
+     *
+     * @return This.
+     */
+    public ParticleSystem clearCollisions() {
+        if (mColliders != null) {
+            mColliders.clear();
+        }
+        mViewColliders.clear();
+        return this;
+    }
+
+    private ParticleColliders getColliders(boolean bounce) {
+        if (bounce && !mSimulation.isIntegratedMotion()) {
+            useIntegratedMotion();
+        } else if (!mSimulation.isPacked()) {
+            usePackedStorage();
+        }
+        if (mColliders == null) {
+            mColliders = new ParticleColliders();
+            mColliders.setBounce(mCollisionRestitution, mCollisionFriction);
+            mSimulation.setColliders(mColliders);
+        }
+        return mColliders;
+    }
+
+    /**
+     * Reads the bounds of the views the particles collide with, relative to the parent view.
+     */
+    private void updateViewColliders() {
+        for (int i = 0; i < mViewColliders.size(); i++) {
+            ViewCollider collider = mViewColliders.get(i);
+            View view = collider.mView;
+            int width = view.getWidth();
+            int height = view.getHeight();
+            boolean laidOut = width > 0 && height > 0;
+            if (collider.mFloor) {
+                mColliders.setEnabled(collider.mIndex, laidOut);
+                // Wide and deep, so the fast particles do not go through it or around it
+                mColliders.set(collider.mIndex, -width, height, 2 * width, height + FLOOR_DEPTH);
+            } else if (laidOut && view.getVisibility() == View.VISIBLE && view.getWindowToken() != null) {
+                mColliders.setEnabled(collider.mIndex, true);
+                view.getLocationInWindow(mColliderLocation);
+                int left = mColliderLocation[0] - mParentLocation[0];
+                int top = mColliderLocation[1] - mParentLocation[1];
+                mColliders.set(collider.mIndex, left, top, left + width, top + height);
+            } else {
+                mColliders.setEnabled(collider.mIndex, false);
+            }
+        }
+    }
+
+    private static class ViewCollider {
+        final View mView;
+        final int mIndex;
+        final boolean mFloor;
+
+        ViewCollider(View view, int index, boolean floor) {
+            mView = view;
+            mIndex = index;
+            mFloor = floor;
+        }
+    }
+
+    /**
+     * Sets a listener that receives the metrics of this particle system after every frame: the
+     * update and draw times, the particle counts, the spawns and deaths per second, the late frames
+     * and the allocations. The update and the drawing are also traced as "Leonids update" and
+     * "Leonids draw" sections in systrace.
+     * <p>
+     * The allocations are counted with Debug.startAllocCounting, which slows down every allocation
+     * of the process while any system has a listener, so it should only be set while measuring.
+     *
+     * @param listener the listener, or null to stop collecting the metrics
+     * @return This.
+     */
+    public ParticleSystem setMetricsListener(ParticleMetricsListener listener) {
+        if (listener != null && mMetricsListener == null) {
+            ParticleTrace.startAllocationCounting();
+        } else if (listener == null && mMetricsListener != null) {
+            ParticleTrace.stopAllocationCounting();
+        }
+        mMetricsListener = listener;
+        mMetricsWindowStart = 0;
+        if (listener != null && mFramePeriodNanos == 0) {
+            WindowManager windowManager = (WindowManager) mParentView.getContext().getSystemService(Context.WINDOW_SERVICE);
+            float refreshRate = windowManager.getDefaultDisplay().getRefreshRate();
+            mFramePeriodNanos = (long) (NANOS_PER_SECOND / (refreshRate > 0 ? refreshRate : 60f));
+        }
+        return this;
+    }
+
+    /**
+     * Seeds the random numbers used to initialize the particles, so the effect is the same every
+     * time it runs.
+     *
+     * @param seed the seed
+     * @return This.
+     */
+    public ParticleSystem setRandomSeed(long seed) {
+        mSimulation.setSeed(seed);
+        return this;
+    }
+
+    /**
+     * Creates a preset with the current configuration of this particle system, that can be used to
+     * create other particle systems cheaply. The system must not be running. The initializers and
+     * modifiers are shared with the systems created from the preset, not copied.
+     *
+     * @return The preset.
+     */
+    public EmitterPreset createPreset() {
+        if (mSimulation.getActiveCount() > 0) {
+            throw new IllegalStateException("A preset can not be created while the system is running");
+        }
+        Particle[] prototypes = null;
+        if (mPreset != null) {
+            prototypes = mPreset.getPrototypes();
+        } else if (!mSimulation.isPacked()) {
+            prototypes = mSimulation.copyParticles();
+        }
+        return new EmitterPreset(mMaxParticles, mTimeToLive, mAtlas, prototypes, mSimulation.getPackedRegions(),
+                mSimulation.isIntegratedMotion(), mSimulation.getInitializers(), mSimulation.getModifiers());
+    }
+
     public ParticleSystem setStartTime(long time) {
         mCurrentTime = time;
         return this;
@@ -446,7 +965,9 @@ public class ParticleSystem {
      * @param interpolator          the interpolator for the fade out (default is linear)
      */
     public ParticleSystem setFadeOut(long millisecondsBeforeEnd, Interpolator interpolator) {
-        mModifiers.add(new AlphaModifier(255, 0, mTimeToLive - millisecondsBeforeEnd, mTimeToLive, interpolator));
+        // The curve is sampled once, so it is not evaluated for every particle on every frame
+        mSimulation.addModifier(new AlphaModifier(255, 0, mTimeToLive - millisecondsBeforeEnd, mTimeToLive,
+                interpolator, BakedInterpolator.DEFAULT_SAMPLES));
         return this;
     }
 
@@ -456,7 +977,8 @@ public class ParticleSystem {
      * @param duration fade out duration in milliseconds
      */
     public ParticleSystem setFadeOut(long duration) {
-        return setFadeOut(duration, new LinearInterpolator());
+        mSimulation.addModifier(new AlphaModifier(255, 0, mTimeToLive - duration, mTimeToLive));
+        return this;
     }
 
     /**
@@ -523,75 +1045,91 @@ public class ParticleSystem {
     }
 
     private void startEmitting(int particlesPerSecond) {
-        mActivatedParticles = 0;
-        mParticlesPerMillisecond = particlesPerSecond / 1000f;
+        obtainStorage();
         // Add a full size view to the parent view
-        mDrawingView = new ParticleField(mParentView.getContext());
-        mParentView.addView(mDrawingView);
-        mEmittingTime = -1; // Meaning infinite
-        mDrawingView.setParticles(mActiveParticles);
+        addDrawingView();
+        mSimulation.startEmitting(particlesPerSecond, -1); // Meaning infinite
         updateParticlesBeforeStartTime(particlesPerSecond);
-        mTimer = new Timer();
-        mTimer.schedule(mTimerTask, 0, TIMER_TASK_INTERVAL);
+        startUpdates(null, -1);
     }
 
     private void startEmitting(int particlesPerSecond, int emittingTime) {
-        mActivatedParticles = 0;
-        mParticlesPerMillisecond = particlesPerSecond / 1000f;
+        obtainStorage();
         // Add a full size view to the parent view
-        mDrawingView = new ParticleField(mParentView.getContext());
-        mParentView.addView(mDrawingView);
+        addDrawingView();
 
-        mDrawingView.setParticles(mActiveParticles);
+        mSimulation.startEmitting(particlesPerSecond, 0);
         updateParticlesBeforeStartTime(particlesPerSecond);
-        mEmittingTime = emittingTime;
-        startAnimator(new LinearInterpolator(), emittingTime + mTimeToLive);
+        mSimulation.stopEmitting(emittingTime);
+        startUpdates(new LinearInterpolator(), emittingTime + mTimeToLive);
+    }
+
+    private void addDrawingView() {
+        Context context = mParentView.getContext();
+        if (mUseGLRendering && ParticleGLView.isSupported(context)) {
+            ParticleGLView view = new ParticleGLView(context, mGLOnTop);
+            mDrawingView = view;
+            mRenderer = view;
+        } else {
+            ParticleField view = new ParticleField(context);
+            mDrawingView = view;
+            mRenderer = view;
+        }
+        mDrawAllocations = 0;
+        mSimulation.setViewport(0, 0, mParentView.getWidth(), mParentView.getHeight());
+        // The renderer needs the snapshots before it is attached
+        mRenderer.setSnapshots(mSimulation.getSnapshots(), mAtlas.getBitmap());
+        mParentView.addView(mDrawingView);
     }
 
     private void configureEmitter(int emitterX, int emitterY) {
         // We configure the emitter based on the window location to fix the offset of action bar if present
-        mEmitterXMin = emitterX - mParentLocation[0];
-        mEmitterXMax = mEmitterXMin;
-        mEmitterYMin = emitterY - mParentLocation[1];
-        mEmitterYMax = mEmitterYMin;
+        int x = emitterX - mParentLocation[0];
+        int y = emitterY - mParentLocation[1];
+        mSimulation.setEmitterRange(x, x, y, y);
     }
 
     private void configureEmitter(View emitter, int gravity) {
         // It works with an emission range
-        int[] location = new int[2];
+        int[] location = mEmitterLocation;
         emitter.getLocationInWindow(location);
 
+        int emitterXMin;
+        int emitterXMax;
+        int emitterYMin;
+        int emitterYMax;
         // Check horizontal gravity and set range
         if (hasGravity(gravity, Gravity.LEFT)) {
-            mEmitterXMin = location[0] - mParentLocation[0];
-            mEmitterXMax = mEmitterXMin;
+            emitterXMin = location[0] - mParentLocation[0];
+            emitterXMax = emitterXMin;
         } else if (hasGravity(gravity, Gravity.RIGHT)) {
-            mEmitterXMin = location[0] + emitter.getWidth() - mParentLocation[0];
-            mEmitterXMax = mEmitterXMin;
+            emitterXMin = location[0] + emitter.getWidth() - mParentLocation[0];
+            emitterXMax = emitterXMin;
         } else if (hasGravity(gravity, Gravity.CENTER_HORIZONTAL)) {
-            mEmitterXMin = location[0] + emitter.getWidth() / 2 - mParentLocation[0];
-            mEmitterXMax = mEmitterXMin;
+            emitterXMin = location[0] + emitter.getWidth() / 2 - mParentLocation[0];
+            emitterXMax = emitterXMin;
         } else {
             // All the range
-            mEmitterXMin = location[0] - mParentLocation[0];
-            mEmitterXMax = location[0] + emitter.getWidth() - mParentLocation[0];
+            emitterXMin = location[0] - mParentLocation[0];
+            emitterXMax = location[0] + emitter.getWidth() - mParentLocation[0];
         }
 
         // Now, vertical gravity and range
         if (hasGravity(gravity, Gravity.TOP)) {
-            mEmitterYMin = location[1] - mParentLocation[1];
-            mEmitterYMax = mEmitterYMin;
+            emitterYMin = location[1] - mParentLocation[1];
+            emitterYMax = emitterYMin;
         } else if (hasGravity(gravity, Gravity.BOTTOM)) {
-            mEmitterYMin = location[1] + emitter.getHeight() - mParentLocation[1];
-            mEmitterYMax = mEmitterYMin;
+            emitterYMin = location[1] + emitter.getHeight() - mParentLocation[1];
+            emitterYMax = emitterYMin;
         } else if (hasGravity(gravity, Gravity.CENTER_VERTICAL)) {
-            mEmitterYMin = location[1] + emitter.getHeight() / 2 - mParentLocation[1];
-            mEmitterYMax = mEmitterYMin;
+            emitterYMin = location[1] + emitter.getHeight() / 2 - mParentLocation[1];
+            emitterYMax = emitterYMin;
         } else {
             // All the range
-            mEmitterYMin = location[1] - mParentLocation[1];
-            mEmitterYMax = location[1] + emitter.getHeight() - mParentLocation[1];
+            emitterYMin = location[1] - mParentLocation[1];
+            emitterYMax = location[1] + emitter.getHeight() - mParentLocation[1];
         }
+        mSimulation.setEmitterRange(emitterXMin, emitterXMax, emitterYMin, emitterYMax);
     }
 
     public void updateEmitPoint(int emitterX, int emitterY) {
@@ -603,7 +1141,8 @@ public class ParticleSystem {
     }
 
     /**
-     * Launches particles in one Shot
+     * Launches particles in one Shot. With packed storage big ones can be spread over several
+     * frames, see {@link #setSpawnChunksPerFrame(int)}.
      *
      * @param emitter      View from which center the particles will be emited
      * @param numParticles number of particles launched on the one shot
@@ -621,19 +1160,14 @@ public class ParticleSystem {
      */
     public void oneShot(View emitter, int numParticles, Interpolator interpolator) {
         configureEmitter(emitter, Gravity.CENTER);
-        mActivatedParticles = 0;
-        mEmittingTime = mTimeToLive;
+        obtainStorage();
         // We create particles based in the parameters
-        for (int i = 0; i < numParticles && i < mMaxParticles; i++) {
-            activateParticle(0);
-        }
+        mSimulation.oneShot(numParticles);
         // Add a full size view to the parent view
-        mDrawingView = new ParticleField(mParentView.getContext());
-        mParentView.addView(mDrawingView);
-        mDrawingView.setParticles(mActiveParticles);
-        // We start a property animator that will call us to do the update
+        addDrawingView();
+        // We register on the scheduler that will call us to do the update
         // Animate from 0 to timeToLiveMax
-        startAnimator(interpolator, mTimeToLive);
+        startUpdates(interpolator, mTimeToLive);
     }
 
     /**
@@ -642,7 +1176,7 @@ public class ParticleSystem {
      */
     public void stopEmitting() {
         // The time to be emitting is the current time (as if it was a time-limited emitter
-        mEmittingTime = mCurrentTime;
+        mSimulation.stopEmitting(mCurrentTime);
     }
 
     /**
@@ -650,76 +1184,124 @@ public class ParticleSystem {
      * To stop emitting but animate until the end, use stopEmitting instead.
      */
     public void cancel() {
-        if (mAnimator != null && mAnimator.isRunning()) {
-            mAnimator.cancel();
-        }
-        if (mTimer != null) {
-            mTimer.cancel();
-            mTimer.purge();
+        ParticleScheduler scheduler = ParticleScheduler.getInstance();
+        if (scheduler.isRegistered(this)) {
+            scheduler.unregister(this);
             cleanupAnimation();
         }
     }
 
+    /**
+     * Uses the cached atlas of the resources if there is one. A single image does not need it, its
+     * bitmap is already cached and is used as the atlas without copying it.
+     */
+    private void setParticles(Context context, int maxParticles, int[] drawableResIds) {
+        int densityDpi = context.getResources().getDisplayMetrics().densityDpi;
+        BitmapCache cache = BitmapCache.getInstance();
+        BitmapCache.AtlasEntry entry = cache.getAtlas(drawableResIds, densityDpi);
+        if (entry == null) {
+            entry = buildAtlas(getDrawables(context, drawableResIds));
+            if (drawableResIds.length > 1 || entry.mFrameDurations[0] != null) {
+                cache.putAtlas(drawableResIds, densityDpi, entry);
+            }
+        }
+        setParticles(maxParticles, entry);
+    }
+
     private void setParticles(int maxParticles, Drawable[] drawables) {
-        for (Drawable drawable : drawables) {
-            if (drawable instanceof AnimationDrawable) {
-                AnimationDrawable animation = (AnimationDrawable) drawable;
-                mParticles.add(new AnimatedParticle(animation));
+        setParticles(maxParticles, buildAtlas(drawables));
+    }
+
+    private void setParticles(int maxParticles, BitmapCache.AtlasEntry entry) {
+        mAtlas = entry.mAtlas;
+        AtlasRegion[][] frames = entry.mFrames;
+        // The drawables are evenly distributed among the particles
+        for (int i = 0; i < maxParticles; i++) {
+            int index = i % frames.length;
+            if (entry.mFrameDurations[index] != null) {
+                mSimulation.addParticle(new AnimatedParticle(frames[index], entry.mFrameDurations[index], entry.mOneShot[index]));
             } else {
-                Bitmap bitmap;
-                if (drawable instanceof BitmapDrawable) {
-                    bitmap = ((BitmapDrawable) drawable).getBitmap();
-                } else {
-                    bitmap = Bitmap.createBitmap(drawable.getIntrinsicWidth(),
-                            drawable.getIntrinsicHeight(), Bitmap.Config.ARGB_8888);
-                    Canvas canvas = new Canvas(bitmap);
-                    drawable.setBounds(0, 0, canvas.getWidth(), canvas.getHeight());
-                    drawable.draw(canvas);
-                }
-                mParticles.add(new Particle(bitmap));
+                mSimulation.addParticle(new Particle(frames[index][0]));
             }
         }
+        mSimulation.shuffleParticles();
+    }
 
-        for (int i = 0; i < maxParticles / drawables.length; i++) {
-            mParticles.addAll(new ArrayList<>(mParticles));
+    private BitmapCache.AtlasEntry buildAtlas(Drawable[] drawables) {
+        // All the images go to the same atlas, each drawable is converted only once
+        TextureAtlas.Builder builder = new TextureAtlas.Builder();
+        AtlasRegion[][] frames = new AtlasRegion[drawables.length][];
+        int[][] frameDurations = new int[drawables.length][];
+        boolean[] oneShot = new boolean[drawables.length];
+        for (int i = 0; i < drawables.length; i++) {
+            if (drawables[i] instanceof AnimationDrawable) {
+                AnimationDrawable animation = (AnimationDrawable) drawables[i];
+                frames[i] = addFrames(builder, animation);
+                frameDurations[i] = getFrameDurations(animation);
+                oneShot[i] = animation.isOneShot();
+            } else {
+                frames[i] = new AtlasRegion[]{builder.add(drawables[i])};
+            }
         }
-        mParticles.addAll(new ArrayList<>(mParticles).subList(0, maxParticles % drawables.length));
-
-        Collections.shuffle(mParticles);
+        return new BitmapCache.AtlasEntry(builder.build(), frames, frameDurations, oneShot);
     }
 
+    private AtlasRegion[] addFrames(TextureAtlas.Builder builder, AnimationDrawable animation) {
+        AtlasRegion[] frames = new AtlasRegion[animation.getNumberOfFrames()];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = builder.add(animation.getFrame(i));
+        }
+        return frames;
+    }
 
-    private void startAnimator(Interpolator interpolator, long animnationTime) {
-        mAnimator = ValueAnimator.ofInt(0, (int) animnationTime);
-        mAnimator.setDuration(animnationTime);
-        mAnimator.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
-            @Override
-            public void onAnimationUpdate(ValueAnimator animation) {
-                int milliseconds = (Integer) animation.getAnimatedValue();
-                onUpdate(milliseconds);
-            }
-        });
-        mAnimator.addListener(new AnimatorListener() {
-            @Override
-            public void onAnimationStart(Animator animation) {
-            }
-
-            @Override
-            public void onAnimationRepeat(Animator animation) {
-            }
+    private int[] getFrameDurations(AnimationDrawable animation) {
+        int[] durations = new int[animation.getNumberOfFrames()];
+        for (int i = 0; i < durations.length; i++) {
+            durations[i] = animation.getDuration(i);
+        }
+        return durations;
+    }
 
-            @Override
-            public void onAnimationEnd(Animator animation) {
-                cleanupAnimation();
-            }
+    /**
+     * Registers on the scheduler. With an interpolator the updates go from 0 to animationTime
+     * following it and then the system is cleaned up, without it the system runs until cancelled.
+     */
+    private void startUpdates(Interpolator interpolator, long animationTime) {
+        mInterpolator = interpolator;
+        mAnimationTime = animationTime;
+        mStartTime = mCurrentTime;
+        mFirstFrameTimeNanos = -1;
+        ParticleScheduler.getInstance().register(this);
+    }
 
-            @Override
-            public void onAnimationCancel(Animator animation) {
-                cleanupAnimation();
-            }
-        });
-        mAnimator.setInterpolator(interpolator);
-        mAnimator.start();
+    /**
+     * Called by the scheduler once per frame.
+     *
+     * @param frameTimeNanos the time of the frame being rendered
+     */
+    void onFrame(long frameTimeNanos) {
+        if (mFirstFrameTimeNanos < 0) {
+            mFirstFrameTimeNanos = frameTimeNanos;
+        } else if (mMetricsListener != null) {
+            countLateFrame(frameTimeNanos - mLastFrameTimeNanos);
+        }
+        mLastFrameTimeNanos = frameTimeNanos;
+        long elapsedMillis = (frameTimeNanos - mFirstFrameTimeNanos) / NANOS_PER_MILLISECOND;
+        long updateStart = System.nanoTime();
+        int allocationStart = mMetricsListener != null ? ParticleTrace.getThreadAllocations() : 0;
+        if (mInterpolator == null) {
+            mCurrentTime = mStartTime + elapsedMillis;
+            onUpdate(mCurrentTime);
+            reportMetrics(updateStart, allocationStart);
+            return;
+        }
+        float fraction = mAnimationTime > 0 ? Math.min(1f, elapsedMillis / (float) mAnimationTime) : 1f;
+        onUpdate((long) (mInterpolator.getInterpolation(fraction) * mAnimationTime));
+        reportMetrics(updateStart, allocationStart);
+        if (fraction >= 1f) {
+            ParticleScheduler.getInstance().unregister(this);
+            cleanupAnimation();
+        }
     }
 
     private void updateParticlesBeforeStartTime(int particlesPerSecond) {
@@ -742,85 +1324,117 @@ public class ParticleSystem {
     }
 
     private void onUpdate(long milliseconds) {
-        while (((mEmittingTime > 0 && milliseconds < mEmittingTime) || mEmittingTime == -1) && // This point should emit
-                !mParticles.isEmpty() && // We have particles in the pool
-                mActivatedParticles < mParticlesPerMillisecond * milliseconds) { // and we are under the number of particles that should be launched
-            // Activate a new particle
-            activateParticle(milliseconds);
-        }
-        synchronized (mActiveParticles) {
-            for (int i = 0; i < mActiveParticles.size(); i++) {
-                boolean active = mActiveParticles.get(i).update(milliseconds);
-                if (!active) {
-                    Particle p = mActiveParticles.remove(i);
-                    i--; // Needed to keep the index at the right position
-                    mParticles.add(p);
-                }
-            }
+        ParticleTrace.beginSection(ParticleTrace.UPDATE);
+        try {
+            updateViewColliders();
+            mSimulation.advance(milliseconds);
+            mRenderer.requestRender(mSimulation.getPublished());
+        } finally {
+            ParticleTrace.endSection();
+        }
+    }
+
+    private void countLateFrame(long frameIntervalNanos) {
+        long expected = Math.max(mFramePeriodNanos,
+                ParticleScheduler.getInstance().getMinFrameInterval() * NANOS_PER_MILLISECOND);
+        if (frameIntervalNanos > expected * 3 / 2) {
+            mWindowLateFrames++;
         }
-        mDrawingView.postInvalidate();
+    }
+
+    /**
+     * @param allocationStart the allocations of this thread when the update started
+     */
+    private void reportMetrics(long updateStart, int allocationStart) {
+        if (mMetricsListener == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        // The allocations of the update and of the drawing since the last update
+        int drawAllocations = mRenderer.getDrawAllocations();
+        mWindowAllocations += ParticleTrace.getThreadAllocations() - allocationStart
+                + drawAllocations - mDrawAllocations;
+        mDrawAllocations = drawAllocations;
+        ParticleMetrics metrics = mMetrics;
+        metrics.mUpdateNanos = now - updateStart;
+        metrics.mDrawNanos = mRenderer.getLastDrawNanos();
+        metrics.mActiveParticles = mSimulation.getActiveCount();
+        metrics.mPooledParticles = mSimulation.getPooledCount();
+        if (mMetricsWindowStart == 0) {
+            startMetricsWindow(now);
+        } else if (now - mMetricsWindowStart >= NANOS_PER_SECOND) {
+            float seconds = (now - mMetricsWindowStart) / (float) NANOS_PER_SECOND;
+            metrics.mSpawnsPerSecond = Math.round((mSimulation.getSpawnCount() - mWindowSpawnCount) / seconds);
+            metrics.mDeathsPerSecond = Math.round((mSimulation.getDeathCount() - mWindowDeathCount) / seconds);
+            metrics.mLateFrames = mWindowLateFrames;
+            metrics.mAllocations = mWindowAllocations;
+            startMetricsWindow(now);
+        }
+        mMetricsListener.onMetrics(this, metrics);
+    }
+
+    private void startMetricsWindow(long now) {
+        mMetricsWindowStart = now;
+        mWindowSpawnCount = mSimulation.getSpawnCount();
+        mWindowDeathCount = mSimulation.getDeathCount();
+        mWindowAllocations = 0;
+        mWindowLateFrames = 0;
     }
 
     private void cleanupAnimation() {
         mParentView.removeView(mDrawingView);
         mDrawingView = null;
+        mRenderer = null;
         mParentView.postInvalidate();
-        mParticles.addAll(mActiveParticles);
-    }
-
-    private void activateParticle(long delay) {
-        Particle p = mParticles.remove(0);
-        p.init();
-        // Initialization goes before configuration, scale is required before can be configured properly
-        for (int i = 0; i < mInitializers.size(); i++) {
-            mInitializers.get(i).initParticle(p, mRandom);
+        mSimulation.clear();
+        if (mPreset != null) {
+            // All the particles are back in the pool, other systems can use them now
+            mPreset.recycle(mSimulation.getStorage());
+            mSimulation.setStorage(null);
         }
-        int particleX = getFromRange(mEmitterXMin, mEmitterXMax);
-        int particleY = getFromRange(mEmitterYMin, mEmitterYMax);
-        p.configure(mTimeToLive, particleX, particleY);
-        p.activate(delay, mModifiers);
-        mActiveParticles.add(p);
-        mActivatedParticles++;
     }
 
-    private int getFromRange(int minValue, int maxValue) {
-        if (minValue == maxValue) {
-            return minValue;
-        }
-        if (minValue < maxValue) {
-            return mRandom.nextInt(maxValue - minValue) + minValue;
-        } else {
-            return mRandom.nextInt(minValue - maxValue) + maxValue;
+    private void obtainStorage() {
+        if (mSimulation.getStorage() == null) {
+            mSimulation.setStorage(mPreset.obtainStorage());
         }
     }
 
     private Drawable[] getDrawables(Context context, int[] drawableResIds) {
+        Resources resources = context.getResources();
+        int densityDpi = resources.getDisplayMetrics().densityDpi;
+        BitmapCache cache = BitmapCache.getInstance();
         Drawable[] drawables = new Drawable[drawableResIds.length];
         for (int i = 0; i < drawableResIds.length; i++) {
-            drawables[i] = context.getResources().getDrawable(drawableResIds[i]);
+            Bitmap bitmap = cache.get(drawableResIds[i], densityDpi);
+            if (bitmap == null) {
+                Drawable drawable = resources.getDrawable(drawableResIds[i]);
+                if (drawable instanceof AnimationDrawable) {
+                    // Animations are not cached, their frames are already shared by the resources
+                    drawables[i] = drawable;
+                    continue;
+                }
+                bitmap = toBitmap(drawable);
+                cache.put(drawableResIds[i], densityDpi, bitmap);
+            }
+            drawables[i] = new BitmapDrawable(resources, bitmap);
         }
         return drawables;
     }
 
-    private float dpToPx(float dp) {
-        return dp * mDpToPxScale;
-    }
-
-    private static class ParticleTimerTask extends TimerTask {
-
-        private final WeakReference<ParticleSystem> mPs;
-
-        public ParticleTimerTask(ParticleSystem ps) {
-            mPs = new WeakReference<>(ps);
+    private Bitmap toBitmap(Drawable drawable) {
+        if (drawable instanceof BitmapDrawable) {
+            return ((BitmapDrawable) drawable).getBitmap();
         }
+        Bitmap bitmap = Bitmap.createBitmap(drawable.getIntrinsicWidth(),
+                drawable.getIntrinsicHeight(), Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        drawable.setBounds(0, 0, canvas.getWidth(), canvas.getHeight());
+        drawable.draw(canvas);
+        return bitmap;
+    }
 
-        @Override
-        public void run() {
-            if (mPs.get() != null) {
-                ParticleSystem ps = mPs.get();
-                ps.onUpdate(ps.mCurrentTime);
-                ps.mCurrentTime += TIMER_TASK_INTERVAL;
-            }
-        }
+    private float dpToPx(float dp) {
+        return dp * mDpToPxScale;
     }
 }
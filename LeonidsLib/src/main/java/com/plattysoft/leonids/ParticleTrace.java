@@ -0,0 +1,77 @@
+package com.plattysoft.leonids;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Debug;
+import android.os.Trace;
+
+/**
+ * Sections of android.os.Trace, so the update and the drawing of the particles show up in systrace
+ * captures. They do nothing before API 18.
+ * <p>
+ * Also counts the objects allocated by the update and the drawing, with the allocation counting
+ * of android.os.Debug. It is only enabled while a system has a metrics listener, since it slows
+ * down every allocation of the process.
+ */
+class ParticleTrace {
+
+    static final String UPDATE = "Leonids update";
+    static final String DRAW = "Leonids draw";
+
+    // Systems with a metrics listener, the counting is enabled while there is any
+    private static int sAllocationCounters;
+
+    private ParticleTrace() {
+    }
+
+    /**
+     * Enables the allocation counting, it has to be called on the main thread.
+     */
+    @SuppressWarnings("deprecation")
+    static void startAllocationCounting() {
+        if (sAllocationCounters++ == 0) {
+            Debug.startAllocCounting();
+        }
+    }
+
+    /**
+     * Disables the allocation counting when no other system needs it, on the main thread.
+     */
+    @SuppressWarnings("deprecation")
+    static void stopAllocationCounting() {
+        if (--sAllocationCounters == 0) {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    /**
+     * Objects allocated by the calling thread since the counting was enabled, it only grows while
+     * it is enabled.
+     */
+    @SuppressWarnings("deprecation")
+    static int getThreadAllocations() {
+        return Debug.getThreadAllocCount();
+    }
+
+    static void beginSection(String name) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            beginTraceSection(name);
+        }
+    }
+
+    static void endSection() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            endTraceSection();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static void beginTraceSection(String name) {
+        Trace.beginSection(name);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static void endTraceSection() {
+        Trace.endSection();
+    }
+}
@@ -0,0 +1,150 @@
+package com.plattysoft.leonids;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A single bitmap that contains all the images used by the particles of an emitter, so they can be
+ * drawn together. Each image is referenced by an {@link AtlasRegion}.
+ */
+public class TextureAtlas {
+
+    private static final int MAX_SIZE = 4096;
+    // Empty space around each image, to avoid bleeding from the neighbours when filtering
+    private static final int PADDING = 1;
+
+    private final Bitmap mBitmap;
+
+    private TextureAtlas(Bitmap bitmap) {
+        mBitmap = bitmap;
+    }
+
+    public Bitmap getBitmap() {
+        return mBitmap;
+    }
+
+    /**
+     * Collects the images to pack. The same bitmap is only packed once, no matter how many times
+     * it is added.
+     */
+    public static class Builder {
+
+        private final ArrayList<Entry> mEntries = new ArrayList<>();
+
+        public AtlasRegion add(Bitmap bitmap) {
+            for (int i = 0; i < mEntries.size(); i++) {
+                if (mEntries.get(i).mBitmap == bitmap) {
+                    return mEntries.get(i).mRegion;
+                }
+            }
+            Entry entry = new Entry(new AtlasRegion(0, 0, bitmap.getWidth(), bitmap.getHeight()));
+            entry.mBitmap = bitmap;
+            mEntries.add(entry);
+            return entry.mRegion;
+        }
+
+        /**
+         * Adds a drawable, drawables that are not bitmaps are rasterized straight into the atlas at
+         * their intrinsic size.
+         */
+        public AtlasRegion add(Drawable drawable) {
+            if (drawable instanceof BitmapDrawable) {
+                return add(((BitmapDrawable) drawable).getBitmap());
+            }
+            for (int i = 0; i < mEntries.size(); i++) {
+                if (mEntries.get(i).mDrawable == drawable) {
+                    return mEntries.get(i).mRegion;
+                }
+            }
+            Entry entry = new Entry(new AtlasRegion(0, 0, drawable.getIntrinsicWidth(), drawable.getIntrinsicHeight()));
+            entry.mDrawable = drawable;
+            mEntries.add(entry);
+            return entry.mRegion;
+        }
+
+        /**
+         * Packs the images and sets the position of all the regions returned by add.
+         */
+        public TextureAtlas build() {
+            if (mEntries.isEmpty()) {
+                throw new IllegalStateException("The atlas has no images");
+            }
+            // A single bitmap is already an atlas, there is no need to copy it
+            if (mEntries.size() == 1 && mEntries.get(0).mBitmap != null) {
+                return new TextureAtlas(mEntries.get(0).mBitmap);
+            }
+            Entry[] entries = mEntries.toArray(new Entry[mEntries.size()]);
+            // Shelf packing works best with the tallest images first
+            Arrays.sort(entries, new Comparator<Entry>() {
+                @Override
+                public int compare(Entry a, Entry b) {
+                    return b.mRegion.mHeight - a.mRegion.mHeight;
+                }
+            });
+            int width = getAtlasWidth(entries);
+            int x = PADDING;
+            int y = PADDING;
+            int shelfHeight = 0;
+            for (Entry entry : entries) {
+                AtlasRegion region = entry.mRegion;
+                if (x + region.mWidth + PADDING > width) {
+                    x = PADDING;
+                    y += shelfHeight + PADDING;
+                    shelfHeight = 0;
+                }
+                region.mLeft = x;
+                region.mTop = y;
+                x += region.mWidth + PADDING;
+                shelfHeight = Math.max(shelfHeight, region.mHeight);
+            }
+            int height = y + shelfHeight + PADDING;
+            if (height > MAX_SIZE) {
+                throw new IllegalArgumentException("The images do not fit in a " + MAX_SIZE + "x" + MAX_SIZE + " atlas");
+            }
+            Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            Canvas canvas = new Canvas(bitmap);
+            for (Entry entry : entries) {
+                AtlasRegion region = entry.mRegion;
+                if (entry.mBitmap != null) {
+                    canvas.drawBitmap(entry.mBitmap, region.mLeft, region.mTop, null);
+                } else {
+                    entry.mDrawable.setBounds(region.mLeft, region.mTop,
+                            region.mLeft + region.mWidth, region.mTop + region.mHeight);
+                    entry.mDrawable.draw(canvas);
+                }
+            }
+            return new TextureAtlas(bitmap);
+        }
+
+        private int getAtlasWidth(Entry[] entries) {
+            long area = 0;
+            int maxWidth = 0;
+            for (Entry entry : entries) {
+                area += (long) (entry.mRegion.mWidth + PADDING) * (entry.mRegion.mHeight + PADDING);
+                maxWidth = Math.max(maxWidth, entry.mRegion.mWidth + 2 * PADDING);
+            }
+            int width = Math.max(maxWidth, (int) Math.ceil(Math.sqrt(area)));
+            if (width > MAX_SIZE) {
+                throw new IllegalArgumentException("The images do not fit in a " + MAX_SIZE + "x" + MAX_SIZE + " atlas");
+            }
+            return width;
+        }
+    }
+
+    private static class Entry {
+
+        private final AtlasRegion mRegion;
+        private Bitmap mBitmap;
+        private Drawable mDrawable;
+
+        private Entry(AtlasRegion region) {
+            mRegion = region;
+        }
+    }
+}
@@ -1,45 +1,40 @@
 package com.plattysoft.leonids.modifiers;
 
 import android.view.animation.Interpolator;
-import android.view.animation.LinearInterpolator;
 
-import com.plattysoft.leonids.Particle;
+import com.plattysoft.leonids.AndroidInterpolator;
 
-public class AlphaModifier implements ParticleModifier {
-
-    private int mInitialValue;
-    private int mFinalValue;
-    private long mStartTime;
-    private long mEndTime;
-    private float mDuration;
-    private float mValueIncrement;
-    private Interpolator mInterpolator;
+/**
+ * {@link BaseAlphaModifier} that also takes Android interpolators, adapted with
+ * {@link AndroidInterpolator}.
+ */
+public class AlphaModifier extends BaseAlphaModifier {
 
     public AlphaModifier(int initialValue, int finalValue, long startMilis, long endMilis, Interpolator interpolator) {
-        mInitialValue = initialValue;
-        mFinalValue = finalValue;
-        mStartTime = startMilis;
-        mEndTime = endMilis;
-        mDuration = mEndTime - mStartTime;
-        mValueIncrement = mFinalValue - mInitialValue;
-        mInterpolator = interpolator;
+        super(initialValue, finalValue, startMilis, endMilis, new AndroidInterpolator(interpolator));
     }
 
-    public AlphaModifier(int initialValue, int finalValue, long startMilis, long endMilis) {
-        this(initialValue, finalValue, startMilis, endMilis, new LinearInterpolator());
+    /**
+     * The interpolator is sampled into a table with the given number of samples, see
+     * {@link BakedInterpolator}.
+     */
+    public AlphaModifier(int initialValue, int finalValue, long startMilis, long endMilis, Interpolator interpolator, int samples) {
+        super(initialValue, finalValue, startMilis, endMilis, new AndroidInterpolator(interpolator), samples);
+    }
+
+    public AlphaModifier(int initialValue, int finalValue, long startMilis, long endMilis, ParticleInterpolator interpolator) {
+        super(initialValue, finalValue, startMilis, endMilis, interpolator);
     }
 
-    @Override
-    public void apply(Particle particle, long miliseconds) {
-        if (miliseconds < mStartTime) {
-            particle.mAlpha = mInitialValue;
-        } else if (miliseconds > mEndTime) {
-            particle.mAlpha = mFinalValue;
-        } else {
-            float interpolaterdValue = mInterpolator.getInterpolation((miliseconds - mStartTime) * 1f / mDuration);
-            int newAlphaValue = (int) (mInitialValue + mValueIncrement * interpolaterdValue);
-            particle.mAlpha = newAlphaValue;
-        }
+    /**
+     * The interpolator is sampled into a table with the given number of samples, see
+     * {@link BakedInterpolator}.
+     */
+    public AlphaModifier(int initialValue, int finalValue, long startMilis, long endMilis, ParticleInterpolator interpolator, int samples) {
+        super(initialValue, finalValue, startMilis, endMilis, interpolator, samples);
     }
 
+    public AlphaModifier(int initialValue, int finalValue, long startMilis, long endMilis) {
+        super(initialValue, finalValue, startMilis, endMilis);
+    }
 }
@@ -1,45 +1,40 @@
 package com.plattysoft.leonids.modifiers;
 
 import android.view.animation.Interpolator;
-import android.view.animation.LinearInterpolator;
 
-import com.plattysoft.leonids.Particle;
+import com.plattysoft.leonids.AndroidInterpolator;
 
-public class ScaleModifier implements ParticleModifier {
-
-    private float mInitialValue;
-    private float mFinalValue;
-    private long mEndTime;
-    private long mStartTime;
-    private long mDuration;
-    private float mValueIncrement;
-    private Interpolator mInterpolator;
+/**
+ * {@link BaseScaleModifier} that also takes Android interpolators, adapted with
+ * {@link AndroidInterpolator}.
+ */
+public class ScaleModifier extends BaseScaleModifier {
 
     public ScaleModifier(float initialValue, float finalValue, long startMilis, long endMilis, Interpolator interpolator) {
-        mInitialValue = initialValue;
-        mFinalValue = finalValue;
-        mStartTime = startMilis;
-        mEndTime = endMilis;
-        mDuration = mEndTime - mStartTime;
-        mValueIncrement = mFinalValue - mInitialValue;
-        mInterpolator = interpolator;
+        super(initialValue, finalValue, startMilis, endMilis, new AndroidInterpolator(interpolator));
     }
 
-    public ScaleModifier(float initialValue, float finalValue, long startMilis, long endMilis) {
-        this(initialValue, finalValue, startMilis, endMilis, new LinearInterpolator());
+    /**
+     * The interpolator is sampled into a table with the given number of samples, see
+     * {@link BakedInterpolator}.
+     */
+    public ScaleModifier(float initialValue, float finalValue, long startMilis, long endMilis, Interpolator interpolator, int samples) {
+        super(initialValue, finalValue, startMilis, endMilis, new AndroidInterpolator(interpolator), samples);
+    }
+
+    public ScaleModifier(float initialValue, float finalValue, long startMilis, long endMilis, ParticleInterpolator interpolator) {
+        super(initialValue, finalValue, startMilis, endMilis, interpolator);
     }
 
-    @Override
-    public void apply(Particle particle, long miliseconds) {
-        if (miliseconds < mStartTime) {
-            particle.mScale = mInitialValue;
-        } else if (miliseconds > mEndTime) {
-            particle.mScale = mFinalValue;
-        } else {
-            float interpolaterdValue = mInterpolator.getInterpolation((miliseconds - mStartTime) * 1f / mDuration);
-            float newScale = mInitialValue + mValueIncrement * interpolaterdValue;
-            particle.mScale = newScale;
-        }
+    /**
+     * The interpolator is sampled into a table with the given number of samples, see
+     * {@link BakedInterpolator}.
+     */
+    public ScaleModifier(float initialValue, float finalValue, long startMilis, long endMilis, ParticleInterpolator interpolator, int samples) {
+        super(initialValue, finalValue, startMilis, endMilis, interpolator, samples);
     }
 
+    public ScaleModifier(float initialValue, float finalValue, long startMilis, long endMilis) {
+        super(initialValue, finalValue, startMilis, endMilis);
+    }
 }